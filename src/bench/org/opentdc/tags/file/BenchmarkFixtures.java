@@ -0,0 +1,223 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.opentdc.service.LocalizedTextModel;
+import org.opentdc.tags.TagModel;
+import org.opentdc.util.LanguageCode;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Generated data files and mock servlet objects, so that the benchmarks run offline
+ * without a servlet container.
+ * @author Bruno Kaiser
+ *
+ */
+class BenchmarkFixtures {
+	static final String PREFIX = "tags";
+	static final String PRINCIPAL = "benchmark";
+	private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+	/**
+	 * Generate a data file with random single-word tags, at the default location below a web application root.
+	 * @param dir the web application root, as created by tempDir()
+	 * @param tags the number of tags
+	 * @param languages the number of localized texts per tag
+	 * @return the data file
+	 * @throws IOException
+	 */
+	static File generateDataFile(File dir, int tags, int languages) throws IOException {
+		File _dataF = new File(new File(dir, PREFIX), "data.json");
+		Gson _gson = new Gson();
+		Random _random = new Random(42);
+		Date _date = new Date();
+		LanguageCode[] _codes = LanguageCode.values();
+		JsonWriter _writer = new JsonWriter(new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(_dataF), "UTF-8"), 64 * 1024));
+		try {
+			_writer.beginArray();
+			for (int i = 0; i < tags; i++) {
+				TagModel _model = new TagModel();
+				_model.setId(UUID.randomUUID().toString());
+				setAudit(_model, _date);
+				MultiLangTag _tag = new MultiLangTag(_model);
+				for (int j = 0; j < Math.min(languages, _codes.length); j++) {
+					_tag = _tag.withText(newText(_codes[j], randomWord(_random), _date));
+				}
+				_gson.toJson(_tag, MultiLangTag.class, _writer);
+			}
+			_writer.endArray();
+		} finally {
+			_writer.close();
+		}
+		return _dataF;
+	}
+
+	private static void setAudit(TagModel model, Date date) {
+		model.setCreatedAt(date);
+		model.setCreatedBy(PRINCIPAL);
+		model.setModifiedAt(date);
+		model.setModifiedBy(PRINCIPAL);
+	}
+
+	private static LocalizedTextModel newText(LanguageCode languageCode, String text, Date date) {
+		LocalizedTextModel _text = new LocalizedTextModel();
+		_text.setId(UUID.randomUUID().toString());
+		_text.setLanguageCode(languageCode);
+		_text.setText(text);
+		_text.setCreatedAt(date);
+		_text.setCreatedBy(PRINCIPAL);
+		_text.setModifiedAt(date);
+		_text.setModifiedBy(PRINCIPAL);
+		return _text;
+	}
+
+	/**
+	 * @param random the source of randomness
+	 * @return a random word of 4 to 12 letters
+	 */
+	static String randomWord(Random random) {
+		int _length = 4 + random.nextInt(9);
+		StringBuilder _word = new StringBuilder(_length);
+		for (int i = 0; i < _length; i++) {
+			_word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+		}
+		return _word.toString();
+	}
+
+	/**
+	 * Create a ServletContext that resolves paths below a directory and returns fixed init parameters.
+	 * @param dir the directory that plays the role of the web application root
+	 * @param parameters the init parameters
+	 * @return the mock ServletContext
+	 */
+	static ServletContext servletContext(final File dir, final Map<String, String> parameters) {
+		return (ServletContext) Proxy.newProxyInstance(
+			BenchmarkFixtures.class.getClassLoader(),
+			new Class<?>[] { ServletContext.class },
+			new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("getRealPath")) {
+						return new File(dir, (String) args[0]).getPath();
+					}
+					if (method.getName().equals("getInitParameter")) {
+						return parameters.get(args[0]);
+					}
+					return defaultValue(method.getReturnType());
+				}
+			});
+	}
+
+	/**
+	 * Create the init parameters of a store in a directory.
+	 * @param dataF the data file
+	 * @param persistenceMode one of the FileServiceProvider.PERSISTENCE_MODE_... values
+	 * @return the init parameters
+	 */
+	static Map<String, String> parameters(File dataF, String persistenceMode) {
+		Map<String, String> _parameters = new HashMap<String, String>();
+		_parameters.put(FileServiceProvider.DATA_FILE_PARAM, dataF.getPath());
+		_parameters.put(FileServiceProvider.PERSISTENCE_MODE_PARAM, persistenceMode);
+		// write-behind: never flush during a measurement
+		_parameters.put(FileServiceProvider.FLUSH_INTERVAL_PARAM, String.valueOf(Long.MAX_VALUE / 2));
+		_parameters.put(FileServiceProvider.FLUSH_THRESHOLD_PARAM, String.valueOf(Integer.MAX_VALUE));
+		return _parameters;
+	}
+
+	/**
+	 * Create an HttpServletRequest of an authenticated user.
+	 * @return the mock HttpServletRequest
+	 */
+	static HttpServletRequest request() {
+		final Principal _principal = new Principal() {
+			@Override
+			public String getName() {
+				return PRINCIPAL;
+			}
+		};
+		return (HttpServletRequest) Proxy.newProxyInstance(
+			BenchmarkFixtures.class.getClassLoader(),
+			new Class<?>[] { HttpServletRequest.class },
+			new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("getUserPrincipal")) {
+						return _principal;
+					}
+					if (method.getName().equals("getRemoteUser")) {
+						return PRINCIPAL;
+					}
+					return defaultValue(method.getReturnType());
+				}
+			});
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return Boolean.FALSE;
+		}
+		if (type == int.class) {
+			return Integer.valueOf(0);
+		}
+		if (type == long.class) {
+			return Long.valueOf(0);
+		}
+		return null;
+	}
+
+	/**
+	 * Create a directory for the data files of a benchmark below the system's temporary directory.
+	 * @return the directory
+	 * @throws IOException
+	 */
+	static File tempDir() throws IOException {
+		File _dir = File.createTempFile("tags-bench", "");
+		if (!_dir.delete() || !_dir.mkdirs()) {
+			throw new IOException("could not create <" + _dir.getPath() + ">");
+		}
+		new File(_dir, PREFIX).mkdirs();
+		return _dir;
+	}
+}
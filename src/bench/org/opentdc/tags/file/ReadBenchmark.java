@@ -0,0 +1,157 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentdc.service.LocalizedTextModel;
+import org.opentdc.tags.SingleLangTag;
+import org.opentdc.util.LanguageCode;
+
+/**
+ * Read operations of the FileServiceProvider, CompactTag and MultiLangTag on a generated catalog.
+ * getText() measures the lookup of a localized text in the CompactTag that the index holds,
+ * getLocalizedTextOfTag() the same lookup by tag id through the provider, and getLocalizedText()
+ * the lookup in a MultiLangTag as the clients of readMultiLangTag() do it.
+ * Run with -prof gc to report the allocation per operation.
+ * @author Bruno Kaiser
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int tags;
+
+	@Param({ "1", "4" })
+	public int languages;
+
+	// 0 measures list() on the sorted indexes; with a cache, the repeated list() calls are cache hits
+	@Param({ "0", "256" })
+	public int listCacheSize;
+
+	private FileServiceProvider provider;
+	private String[] tagIds;
+	private String[] textIds;
+	private CompactTag[] compactTags;
+	private MultiLangTag[] multiLangTags;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		File _dir = BenchmarkFixtures.tempDir();
+		File _dataF = BenchmarkFixtures.generateDataFile(_dir, tags, languages);
+		Map<String, String> _parameters = BenchmarkFixtures.parameters(_dataF, 
+				FileServiceProvider.PERSISTENCE_MODE_WRITE_BEHIND);
+		_parameters.put(FileServiceProvider.LIST_CACHE_SIZE_PARAM, String.valueOf(listCacheSize));
+		FileServiceProvider.reset();
+		provider = new FileServiceProvider(
+				BenchmarkFixtures.servletContext(_dir, _parameters), 
+				BenchmarkFixtures.PREFIX);
+		// sample tags in random order, so that reads do not walk the maps sequentially
+		List<String> _ids = new ArrayList<String>(FileServiceProvider.tagIds());
+		Random _random = new Random(7);
+		int _samples = Math.min(4096, _ids.size());
+		tagIds = new String[_samples];
+		textIds = new String[_samples];
+		compactTags = new CompactTag[_samples];
+		multiLangTags = new MultiLangTag[_samples];
+		Map<CompactId, CompactTag> _index = FileServiceProvider.snapshot();
+		for (int i = 0; i < _samples; i++) {
+			tagIds[i] = _ids.get(_random.nextInt(_ids.size()));
+			compactTags[i] = _index.get(CompactId.of(tagIds[i]));
+			multiLangTags[i] = FileServiceProvider.readMultiLangTag(tagIds[i]);
+			textIds[i] = multiLangTags[i].getLocalizedTexts().get(0).getId();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileServiceProvider.reset();
+	}
+
+	private int nextSample() {
+		next = (next + 1) % tagIds.length;
+		return next;
+	}
+
+	@Benchmark
+	public List<SingleLangTag> listAllLanguages() {
+		return provider.list(null, null, 0, 20);
+	}
+
+	@Benchmark
+	public List<SingleLangTag> listOneLanguage() {
+		return provider.list("lang=" + LanguageCode.values()[0].name(), null, 0, 20);
+	}
+
+	@Benchmark
+	public List<LocalizedTextModel> listTexts() {
+		return provider.listTexts(tagIds[nextSample()], null, null, 0, 20);
+	}
+
+	@Benchmark
+	public LocalizedTextModel readText() {
+		int _i = nextSample();
+		return provider.readText(tagIds[_i], textIds[_i]);
+	}
+
+	@Benchmark
+	public String getText() {
+		return compactTags[nextSample()].getText(LanguageCode.values()[0]).getText();
+	}
+
+	@Benchmark
+	public String getLocalizedTextOfTag() {
+		return FileServiceProvider.getLocalizedText(tagIds[nextSample()], LanguageCode.values()[0]);
+	}
+
+	@Benchmark
+	public LocalizedTextModel getLocalizedText() {
+		return multiLangTags[nextSample()].getLocalizedText(LanguageCode.values()[0]);
+	}
+}
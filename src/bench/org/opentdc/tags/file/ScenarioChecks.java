@@ -0,0 +1,444 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.opentdc.service.LocalizedTextModel;
+import org.opentdc.service.exception.DuplicateException;
+import org.opentdc.service.exception.NotFoundException;
+import org.opentdc.tags.SingleLangTag;
+import org.opentdc.tags.TagModel;
+import org.opentdc.util.LanguageCode;
+
+import com.google.gson.Gson;
+
+/**
+ * Scenarios that once left the store in an inconsistent state, run against a FileServiceProvider with mock
+ * servlet objects. Each scenario starts from an empty store in a directory of its own.
+ * Not a JMH benchmark; it runs headless and exits with 1 if a check fails, e.g.
+ * <pre>
+ * java -cp ... org.opentdc.tags.file.ScenarioChecks
+ * </pre>
+ * @author Bruno Kaiser
+ *
+ */
+public class ScenarioChecks {
+	private final HttpServletRequest request = BenchmarkFixtures.request();
+	private final List<String> failures = new ArrayList<String>();
+	private int checks = 0;
+
+	/**
+	 * @param args not used
+	 * @throws IOException if a data file can not be written or read
+	 * @throws InterruptedException if a scenario with several threads is interrupted
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		ScenarioChecks _checks = new ScenarioChecks();
+		_checks.updateTextOfAnotherTag();
+		_checks.binarySnapshotWithoutLanguageCode();
+		_checks.disableSharding();
+		_checks.listCache();
+		_checks.concurrentWriters();
+		_checks.operationMetrics();
+		System.out.println(String.format("%-45s %s", "checks", _checks.checks));
+		System.out.println(String.format("%-45s %s", "failures", _checks.failures.size()));
+		for (String _failure : _checks.failures) {
+			System.out.println("failure: " + _failure);
+		}
+		System.exit(_checks.failures.isEmpty() ? 0 : 1);
+	}
+
+	/**
+	 * updateText() with the id of a text of another tag must not reserve the new text:
+	 * afterwards, findTagIds() does not find it, and a third tag can still create it in a unique language.
+	 */
+	private void updateTextOfAnotherTag() throws IOException {
+		Map<String, String> _parameters = parameters();
+		_parameters.put(FileServiceProvider.UNIQUE_TEXTS_PARAM, LanguageCode.DE.name());
+		FileServiceProvider _provider = open(_parameters);
+		try {
+			String _a = createTag(_provider, LanguageCode.DE, "alpha").getId();
+			String _b = createTag(_provider, LanguageCode.DE, "beta").getId();
+			String _c = createTag(_provider, null, null).getId();
+			LocalizedTextModel _foreign = _provider.listTexts(_b, null, null, 0, 1).get(0);
+			_foreign.setText("gamma");
+			try {
+				_provider.updateText(request, _a, _foreign.getId(), _foreign);
+				fail("updateText(): a text of another tag was updated");
+			} catch (NotFoundException _ex) {
+				checks++;
+			}
+			check(FileServiceProvider.findTagIds("gamma", LanguageCode.DE).isEmpty(), 
+					"findTagIds(): the text of a failed update was found");
+			try {
+				_provider.createText(request, _c, newText(LanguageCode.DE, "gamma"));
+				checks++;
+			} catch (DuplicateException _ex) {
+				fail("createText(): the text of a failed update is still reserved: " + _ex.getMessage());
+			}
+			check("beta".equals(FileServiceProvider.getLocalizedText(_b, LanguageCode.DE)), 
+					"updateText(): the text of the other tag was changed");
+			checkConsistency();
+		} finally {
+			FileServiceProvider.reset();
+		}
+	}
+
+	/**
+	 * A text without a LanguageCode in the JSON data file survives the conversion to a binary snapshot
+	 * and the next load of the snapshot.
+	 */
+	private void binarySnapshotWithoutLanguageCode() throws IOException {
+		Map<String, String> _parameters = parameters();
+		_parameters.put(FileServiceProvider.FORMAT_PARAM, FileServiceProvider.FORMAT_BINARY);
+		File _dataF = new File(_parameters.get(FileServiceProvider.DATA_FILE_PARAM));
+		TagModel _model = new TagModel();
+		_model.setId(UUID.randomUUID().toString());
+		LocalizedTextModel _text = newText(null, "untranslated");
+		_text.setId(UUID.randomUUID().toString());
+		Writer _writer = new OutputStreamWriter(new FileOutputStream(_dataF), "UTF-8");
+		try {
+			new Gson().toJson(Collections.singletonList(new MultiLangTag(_model).withText(_text)), _writer);
+		} finally {
+			_writer.close();
+		}
+		try {
+			open(_parameters);		// converts the data file
+			FileServiceProvider.reset();
+			FileServiceProvider _provider = open(_parameters);
+			List<LocalizedTextModel> _texts = _provider.listTexts(_model.getId(), null, null, 0, 10);
+			check(_texts.size() == 1 && _texts.get(0).getLanguageCode() == null && 
+					"untranslated".equals(_texts.get(0).getText()), 
+					"binary snapshot: the text without LanguageCode was not reloaded");
+			checkConsistency();
+		} catch (RuntimeException _ex) {
+			fail("binary snapshot: a text without LanguageCode can not be written or read: " + _ex);
+		} finally {
+			FileServiceProvider.reset();
+		}
+	}
+
+	/**
+	 * After sharding was disabled, the tags are loaded from the shards, which are newer than the data file,
+	 * and written to the data file; the shards are deleted, so that they are not loaded again later.
+	 */
+	private void disableSharding() throws IOException {
+		Map<String, String> _parameters = parameters();
+		File _shardDir = new File(new File(_parameters.get(FileServiceProvider.DATA_FILE_PARAM)).getParentFile(), "shards");
+		_parameters.put(FileServiceProvider.SHARD_DIR_PARAM, _shardDir.getPath());
+		_parameters.put(FileServiceProvider.SHARDS_PARAM, "4");
+		try {
+			FileServiceProvider _provider = open(_parameters);
+			createTag(_provider, LanguageCode.DE, "alpha");
+			FileServiceProvider.reset();
+			_provider = open(_parameters);
+			String _id = createTag(_provider, LanguageCode.DE, "beta").getId();
+			FileServiceProvider.reset();
+			_parameters.put(FileServiceProvider.SHARDS_PARAM, "0");
+			open(_parameters);
+			check(FileServiceProvider.tagIds().size() == 2 && 
+					"beta".equals(FileServiceProvider.getLocalizedText(_id, LanguageCode.DE)), 
+					"sharding disabled: the tags of the shards were not loaded");
+			File[] _shards = _shardDir.listFiles();
+			check(_shards == null || _shards.length == 0, "sharding disabled: the shards were not deleted");
+			FileServiceProvider.reset();
+			open(_parameters);
+			check(FileServiceProvider.tagIds().size() == 2, 
+					"sharding disabled: the tags of the shards were not written to the data file");
+			checkConsistency();
+		} finally {
+			FileServiceProvider.reset();
+		}
+	}
+
+	/**
+	 * A cached list() result is handed out as new SingleLangTags on every call, and the cache stays
+	 * within its bound, even though it evicts without a global lock.
+	 */
+	private void listCache() throws IOException {
+		Map<String, String> _parameters = parameters();
+		_parameters.put(FileServiceProvider.LIST_CACHE_SIZE_PARAM, "8");
+		FileServiceProvider _provider = open(_parameters);
+		try {
+			for (int i = 0; i < 40; i++) {
+				createTag(_provider, LanguageCode.EN, "tag" + i);
+			}
+			List<SingleLangTag> _first = _provider.list(null, null, 0, 10);
+			List<SingleLangTag> _second = _provider.list(null, null, 0, 10);
+			check(_first.size() == 10 && _second.size() == 10, "list(): a cached page has another size");
+			boolean _shared = false;
+			for (int i = 0; i < _first.size() && i < _second.size(); i++) {
+				_shared |= _first.get(i) == _second.get(i);
+			}
+			check(!_shared, "list(): two calls share a SingleLangTag of the cached page");
+			for (int i = 0; i < 40; i++) {
+				_provider.list(null, null, i, 5);
+			}
+			ListResultCache _cache = new ListResultCache(8);
+			for (int i = 0; i < 100; i++) {
+				_cache.put(new ListResultCache.Key(null, null, null, i, 5), 1L, 
+						Collections.<SortedTagIndex.Entry>emptyList());
+			}
+			check(_cache.size() <= 8, "ListResultCache: " + _cache.size() + " results cached, at most 8 expected");
+			checkConsistency();
+		} finally {
+			FileServiceProvider.reset();
+		}
+	}
+
+	/**
+	 * Many threads create, update and delete the texts of a few tags with synchronous persistence, so that
+	 * most calls contend for the same tag and the same data file. Afterwards, each tag has at most one text
+	 * per LanguageCode, every created text that was not deleted is there, and the data file holds the store.
+	 */
+	private void concurrentWriters() throws IOException, InterruptedException {
+		final int _threads = 32;
+		final int _calls = 200;
+		final LanguageCode[] _codes = { LanguageCode.DE, LanguageCode.EN, LanguageCode.FR };
+		Map<String, String> _parameters = parameters();
+		final FileServiceProvider _provider = open(_parameters);
+		try {
+			final List<String> _ids = new ArrayList<String>();
+			for (int i = 0; i < 4; i++) {
+				_ids.add(createTag(_provider, null, null).getId());
+			}
+			final List<String> _errors = Collections.synchronizedList(new ArrayList<String>());
+			final AtomicInteger _created = new AtomicInteger();
+			final AtomicInteger _deleted = new AtomicInteger();
+			final CountDownLatch _start = new CountDownLatch(1);
+			List<Thread> _writers = new ArrayList<Thread>();
+			for (int t = 0; t < _threads; t++) {
+				final Random _random = new Random(t);
+				Thread _writer = new Thread("writer-" + t) {
+					@Override
+					public void run() {
+						try {
+							_start.await();
+						} catch (InterruptedException _ex) {
+							return;
+						}
+						for (int i = 0; i < _calls; i++) {
+							String _id = _ids.get(_random.nextInt(_ids.size()));
+							LanguageCode _lc = _codes[_random.nextInt(_codes.length)];
+							try {
+								List<LocalizedTextModel> _texts = _provider.listTexts(_id, null, null, 0, 10);
+								LocalizedTextModel _text = null;
+								for (LocalizedTextModel _candidate : _texts) {
+									if (_candidate.getLanguageCode() == _lc) {
+										_text = _candidate;
+									}
+								}
+								if (_text == null) {
+									_provider.createText(request, _id, newText(_lc, BenchmarkFixtures.randomWord(_random)));
+									_created.incrementAndGet();
+								} else if (_random.nextBoolean()) {
+									_text.setText(BenchmarkFixtures.randomWord(_random));
+									_provider.updateText(request, _id, _text.getId(), _text);
+								} else {
+									_provider.deleteText(_id, _text.getId());
+									_deleted.incrementAndGet();
+								}
+							} catch (DuplicateException _ex) {
+								// another writer created the text in this language first
+							} catch (NotFoundException _ex) {
+								// another writer deleted the text first
+							} catch (RuntimeException _ex) {
+								_errors.add(getName() + ": " + _ex);
+							}
+						}
+					}
+				};
+				_writers.add(_writer);
+				_writer.start();
+			}
+			_start.countDown();
+			for (Thread _writer : _writers) {
+				_writer.join();
+			}
+			for (String _error : _errors) {
+				fail(_error);
+			}
+			check(_created.get() > 0, "concurrent writers: no text was created");
+			checkConsistency();
+			int _texts = 0;
+			for (String _id : _ids) {
+				_texts += _provider.listTexts(_id, null, null, 0, 10).size();
+			}
+			check(_texts == _created.get() - _deleted.get(), "concurrent writers: " + _texts + " texts, but " + 
+					_created.get() + " created and " + _deleted.get() + " deleted");
+			Map<CompactId, CompactTag> _before = FileServiceProvider.snapshot();
+			FileServiceProvider.reset();
+			open(_parameters);
+			Map<CompactId, CompactTag> _after = FileServiceProvider.snapshot();
+			boolean _same = _before.size() == _after.size();
+			for (Map.Entry<CompactId, CompactTag> _entry : _before.entrySet()) {
+				_same &= _entry.getValue().isSameAs(_after.get(_entry.getKey()));
+			}
+			check(_same, "concurrent writers: the data file differs from the store in memory");
+		} finally {
+			FileServiceProvider.reset();
+		}
+	}
+
+	/**
+	 * Every call, including a failed one, is counted once and its latency recorded once in the histogram;
+	 * a failed call is also counted by the simple class name of its exception.
+	 * The metrics are static and survive reset(), so the checks compare the counts before and after the calls.
+	 */
+	private void operationMetrics() throws IOException {
+		FileServiceProvider _provider = open(parameters());
+		try {
+			Map<String, OperationStats> _before = operations();
+			TagModel _tag = createTag(_provider, LanguageCode.EN, "metrics");
+			_provider.read(_tag.getId());
+			try {
+				_provider.read(UUID.randomUUID().toString());
+				fail("metrics: read() of an unknown tag did not throw NotFoundException");
+			} catch (NotFoundException _ex) {
+				// expected
+			}
+			try {
+				_provider.readText(_tag.getId(), UUID.randomUUID().toString());
+				fail("metrics: readText() of an unknown text did not throw NotFoundException");
+			} catch (NotFoundException _ex) {
+				// expected
+			}
+			Map<String, OperationStats> _after = operations();
+			checkCounts(_before, _after, TagsMetrics.Operation.CREATE, 1, 0);
+			checkCounts(_before, _after, TagsMetrics.Operation.CREATE_TEXT, 1, 0);
+			checkCounts(_before, _after, TagsMetrics.Operation.READ, 2, 1);
+			checkCounts(_before, _after, TagsMetrics.Operation.READ_TEXT, 1, 1);
+			checkCounts(_before, _after, TagsMetrics.Operation.DELETE, 0, 0);
+		} finally {
+			FileServiceProvider.reset();
+		}
+	}
+
+	private static Map<String, OperationStats> operations() {
+		Map<String, OperationStats> _operations = new HashMap<String, OperationStats>();
+		for (OperationStats _stats : FileServiceProvider.getMetrics().getOperations()) {
+			_operations.put(_stats.getName(), _stats);
+		}
+		return _operations;
+	}
+
+	private void checkCounts(
+			Map<String, OperationStats> before, 
+			Map<String, OperationStats> after, 
+			TagsMetrics.Operation op, 
+			long calls, 
+			long notFound) {
+		OperationStats _before = before.get(op.getLabel());
+		OperationStats _after = after.get(op.getLabel());
+		long _calls = _after.getCalls() - _before.getCalls();
+		long _samples = _after.getSamples() - _before.getSamples();
+		long _notFound = errors(_after, "NotFoundException") - errors(_before, "NotFoundException");
+		long _errors = errors(_after, null) - errors(_before, null);
+		check(_calls == calls, "metrics: " + op.getLabel() + "() counted " + _calls + " calls, " + calls + " expected");
+		check(_samples == calls, 
+				"metrics: " + op.getLabel() + "() recorded " + _samples + " latencies, " + calls + " expected");
+		check(_notFound == notFound && _errors == notFound, 
+				"metrics: " + op.getLabel() + "() counted " + _notFound + " NotFoundExceptions and " + _errors 
+				+ " errors in all, " + notFound + " expected");
+	}
+
+	/**
+	 * @return the number of errors of the given type, or of all types if it is null
+	 */
+	private static long errors(OperationStats stats, String type) {
+		long _count = 0;
+		for (Map.Entry<String, Long> _error : stats.getErrors().entrySet()) {
+			if (type == null || type.equals(_error.getKey())) {
+				_count += _error.getValue();
+			}
+		}
+		return _count;
+	}
+
+	/**
+	 * @return the parameters of a persistent store in sync mode, in a new directory
+	 */
+	private static Map<String, String> parameters() throws IOException {
+		File _dir = BenchmarkFixtures.tempDir();
+		return BenchmarkFixtures.parameters(new File(new File(_dir, BenchmarkFixtures.PREFIX), "data.json"), 
+				FileServiceProvider.PERSISTENCE_MODE_SYNC);
+	}
+
+	private static FileServiceProvider open(Map<String, String> parameters) throws IOException {
+		File _dir = new File(parameters.get(FileServiceProvider.DATA_FILE_PARAM)).getParentFile().getParentFile();
+		return new FileServiceProvider(BenchmarkFixtures.servletContext(_dir, parameters), BenchmarkFixtures.PREFIX);
+	}
+
+	/**
+	 * Create a tag, with a text if a LanguageCode is given.
+	 */
+	private TagModel createTag(FileServiceProvider provider, LanguageCode languageCode, String text) {
+		TagModel _tag = provider.create(request, new TagModel());
+		if (languageCode != null) {
+			provider.createText(request, _tag.getId(), newText(languageCode, text));
+		}
+		return _tag;
+	}
+
+	private static LocalizedTextModel newText(LanguageCode languageCode, String text) {
+		LocalizedTextModel _text = new LocalizedTextModel();
+		_text.setLanguageCode(languageCode);
+		_text.setText(text);
+		return _text;
+	}
+
+	private void checkConsistency() {
+		for (String _violation : FileServiceProvider.checkConsistency()) {
+			fail(_violation);
+		}
+		checks++;
+	}
+
+	private void check(boolean condition, String failure) {
+		checks++;
+		if (!condition) {
+			failures.add(failure);
+		}
+	}
+
+	private void fail(String failure) {
+		failures.add(failure);
+	}
+}
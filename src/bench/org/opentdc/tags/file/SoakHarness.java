@@ -0,0 +1,356 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.opentdc.service.LocalizedTextModel;
+import org.opentdc.service.exception.DuplicateException;
+import org.opentdc.service.exception.NotFoundException;
+import org.opentdc.tags.TagModel;
+import org.opentdc.util.LanguageCode;
+
+/**
+ * Runs a mixed read/write workload against a persistent FileServiceProvider and checks its consistency afterwards.
+ * Reader threads call list() and getLocalizedText(), writer threads call createText(), updateText(), deleteText()
+ * and delete() (each deleted tag is replaced by a new one, so that the catalog keeps its size), each group at a
+ * target rate. The latency of an operation is measured from its scheduled start, so that a stalled store is not
+ * hidden by a harness that waits for it.
+ * At the end, the throughput and the p50/p99/p999 latencies per operation are reported, and the invariants are
+ * verified: every text in textIndex belongs to exactly one tag, each tag has at most one text per LanguageCode,
+ * and the store reloaded from disk equals the store in memory. The exit code is 1 if an invariant is violated.
+ * Not a JMH benchmark: it runs headless with mock servlet objects, e.g.
+ * <pre>
+ * java -cp ... org.opentdc.tags.file.SoakHarness 100000 4 16 2 20000 200 60 writeBehind
+ * </pre>
+ * @author Bruno Kaiser
+ *
+ */
+public class SoakHarness {
+	private static final LanguageCode[] LANGUAGES = LanguageCode.values();
+	// the errors that are reported in full; the others are only counted
+	private static final int MAX_ERRORS = 10;
+
+	private enum Operation {
+		LIST, GET_LOCALIZED_TEXT, CREATE_TEXT, UPDATE_TEXT, DELETE_TEXT, DELETE, CREATE
+	}
+
+	/**
+	 * The statistics of an operation.
+	 */
+	private static class Stats {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		// the tag or text was changed by another thread between the lookup and the call
+		private final AtomicLong conflicts = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+	}
+
+	private final FileServiceProvider provider;
+	private final HttpServletRequest request = BenchmarkFixtures.request();
+	// the tags the threads work on; a slot gets a new id when its tag is deleted and replaced
+	private final AtomicReferenceArray<String> tagIds;
+	private final Map<Operation, Stats> stats = new EnumMap<Operation, Stats>(Operation.class);
+	private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+	private final AtomicBoolean running = new AtomicBoolean(true);
+
+	private SoakHarness(FileServiceProvider provider) {
+		this.provider = provider;
+		this.tagIds = new AtomicReferenceArray<String>(FileServiceProvider.tagIds().toArray(new String[0]));
+		for (Operation _op : Operation.values()) {
+			stats.put(_op, new Stats());
+		}
+	}
+
+	/**
+	 * @param args number of tags, languages per tag, reader threads, writer threads, reads per second (all readers),
+	 * writes per second (all writers; 0 for no limit), duration in seconds, persistence mode
+	 * @throws IOException if the data file can not be generated or reloaded
+	 * @throws InterruptedException if the harness is interrupted
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int _tags = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int _languages = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int _readers = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		int _writers = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+		long _readRate = args.length > 4 ? Long.parseLong(args[4]) : 10000;
+		long _writeRate = args.length > 5 ? Long.parseLong(args[5]) : 100;
+		int _seconds = args.length > 6 ? Integer.parseInt(args[6]) : 30;
+		String _mode = args.length > 7 ? args[7] : FileServiceProvider.PERSISTENCE_MODE_WRITE_BEHIND;
+		// every call logs at INFO; at the rates of a soak run, this would measure the console
+		Logger.getLogger(FileServiceProvider.class.getName()).setLevel(Level.WARNING);
+
+		File _dir = BenchmarkFixtures.tempDir();
+		File _dataF = BenchmarkFixtures.generateDataFile(_dir, _tags, _languages);
+		Map<String, String> _parameters = BenchmarkFixtures.parameters(_dataF, _mode);
+		// unlike the benchmarks, the soak run persists with the default flush settings
+		_parameters.remove(FileServiceProvider.FLUSH_INTERVAL_PARAM);
+		_parameters.remove(FileServiceProvider.FLUSH_THRESHOLD_PARAM);
+		ServletContext _context = BenchmarkFixtures.servletContext(_dir, _parameters);
+		SoakHarness _harness = new SoakHarness(new FileServiceProvider(_context, BenchmarkFixtures.PREFIX));
+
+		long _elapsed = _harness.run(_readers, _writers, _readRate, _writeRate, _seconds);
+		_harness.report(_elapsed);
+		int _violations = verify(_context);
+		FileServiceProvider.reset();
+		System.exit(_violations == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Run the workload.
+	 * @return the elapsed time in nanoseconds
+	 */
+	private long run(int readers, int writers, long readRate, long writeRate, int seconds) throws InterruptedException {
+		final CountDownLatch _start = new CountDownLatch(1);
+		List<Thread> _threads = new ArrayList<Thread>();
+		for (int i = 0; i < readers + writers; i++) {
+			final boolean _writer = i >= readers;
+			final long _interval = interval(_writer ? writeRate : readRate, _writer ? writers : readers);
+			final Random _random = new Random(42 + i);
+			Thread _t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						_start.await();
+					} catch (InterruptedException _ex) {
+						return;
+					}
+					long _next = System.nanoTime();
+					while (running.get()) {
+						if (_interval > 0) {
+							long _wait = _next - System.nanoTime();
+							if (_wait > 0) {
+								LockSupport.parkNanos(_wait);
+							}
+						} else {
+							_next = System.nanoTime();
+						}
+						if (_writer) {
+							write(_random, _next);
+						} else {
+							read(_random, _next);
+						}
+						_next += _interval;
+					}
+				}
+			}, (_writer ? "soak-writer-" : "soak-reader-") + i);
+			_t.setDaemon(true);
+			_threads.add(_t);
+			_t.start();
+		}
+		long _begin = System.nanoTime();
+		_start.countDown();
+		Thread.sleep(seconds * 1000L);
+		running.set(false);
+		for (Thread _t : _threads) {
+			_t.join();
+		}
+		return System.nanoTime() - _begin;
+	}
+
+	/**
+	 * @return the interval in nanoseconds between the operations of a thread, or 0 for no limit
+	 */
+	private static long interval(long rate, int threads) {
+		return rate <= 0 ? 0 : 1000000000L * threads / rate;
+	}
+
+	private void read(Random random, long scheduled) {
+		String _id = tagIds.get(random.nextInt(tagIds.length()));
+		LanguageCode _lc = LANGUAGES[random.nextInt(LANGUAGES.length)];
+		if (random.nextBoolean()) {
+			Operation _op = Operation.LIST;
+			try {
+				provider.list("lang=" + _lc.name(), null, 0, 20);
+				done(_op, scheduled);
+			} catch (RuntimeException _ex) {
+				failed(_op, _id, _ex);
+			}
+		} else {
+			Operation _op = Operation.GET_LOCALIZED_TEXT;
+			try {
+				FileServiceProvider.getLocalizedText(_id, _lc);
+				done(_op, scheduled);
+			} catch (NotFoundException _ex) {
+				// the tag was deleted after its id was sampled
+				conflict(_op, scheduled);
+			} catch (RuntimeException _ex) {
+				failed(_op, _id, _ex);
+			}
+		}
+	}
+
+	/**
+	 * Run a write: 50% updateText(), 20% createText(), 20% deleteText() and 10% delete().
+	 */
+	private void write(Random random, long scheduled) {
+		int _slot = random.nextInt(tagIds.length());
+		String _id = tagIds.get(_slot);
+		int _choice = random.nextInt(10);
+		Operation _op = _choice < 5 ? Operation.UPDATE_TEXT : _choice < 7 ? Operation.CREATE_TEXT :
+			_choice < 9 ? Operation.DELETE_TEXT : Operation.DELETE;
+		try {
+			if (_op == Operation.CREATE_TEXT) {
+				LocalizedTextModel _text = new LocalizedTextModel();
+				_text.setLanguageCode(LANGUAGES[random.nextInt(LANGUAGES.length)]);
+				_text.setText(BenchmarkFixtures.randomWord(random));
+				provider.createText(request, _id, _text);
+			} else if (_op == Operation.DELETE) {
+				provider.delete(_id);
+				done(_op, scheduled);
+				replace(_slot, _id, random);
+				return;
+			} else {
+				List<LocalizedTextModel> _texts = provider.listTexts(_id, null, null, 0, Integer.MAX_VALUE);
+				if (_texts.isEmpty()) {
+					_op = Operation.CREATE_TEXT;
+					LocalizedTextModel _text = new LocalizedTextModel();
+					_text.setLanguageCode(LANGUAGES[random.nextInt(LANGUAGES.length)]);
+					_text.setText(BenchmarkFixtures.randomWord(random));
+					provider.createText(request, _id, _text);
+				} else {
+					LocalizedTextModel _text = _texts.get(random.nextInt(_texts.size()));
+					if (_op == Operation.UPDATE_TEXT) {
+						_text.setText(BenchmarkFixtures.randomWord(random));
+						provider.updateText(request, _id, _text.getId(), _text);
+					} else {
+						provider.deleteText(_id, _text.getId());
+					}
+				}
+			}
+			done(_op, scheduled);
+		} catch (NotFoundException _ex) {
+			// another writer deleted the tag or the text after it was looked up
+			conflict(_op, scheduled);
+		} catch (DuplicateException _ex) {
+			// the tag has a text in this language already
+			conflict(_op, scheduled);
+		} catch (RuntimeException _ex) {
+			failed(_op, _id, _ex);
+		}
+	}
+
+	/**
+	 * Replace a deleted tag by a new tag with a text, so that the catalog keeps its size.
+	 */
+	private void replace(int slot, String deletedId, Random random) {
+		Operation _op = Operation.CREATE;
+		long _scheduled = System.nanoTime();
+		try {
+			TagModel _tag = provider.create(request, new TagModel());
+			done(_op, _scheduled);
+			LocalizedTextModel _text = new LocalizedTextModel();
+			_text.setLanguageCode(LANGUAGES[random.nextInt(LANGUAGES.length)]);
+			_text.setText(BenchmarkFixtures.randomWord(random));
+			_scheduled = System.nanoTime();
+			_op = Operation.CREATE_TEXT;
+			provider.createText(request, _tag.getId(), _text);
+			done(_op, _scheduled);
+			tagIds.compareAndSet(slot, deletedId, _tag.getId());
+		} catch (RuntimeException _ex) {
+			failed(_op, deletedId, _ex);
+		}
+	}
+
+	private void done(Operation op, long scheduled) {
+		stats.get(op).latency.record(System.nanoTime() - scheduled);
+	}
+
+	private void conflict(Operation op, long scheduled) {
+		done(op, scheduled);
+		stats.get(op).conflicts.incrementAndGet();
+	}
+
+	private void failed(Operation op, String id, RuntimeException ex) {
+		stats.get(op).errors.incrementAndGet();
+		if (errors.size() < MAX_ERRORS) {
+			errors.add(op + "(" + id + "): " + ex);
+		}
+	}
+
+	private void report(long elapsed) {
+		double _seconds = elapsed / 1e9;
+		System.out.println(String.format("%-20s %10s %12s %10s %10s %10s %10s %10s",
+				"operation", "calls", "calls/s", "p50 (us)", "p99 (us)", "p999 (us)", "conflicts", "errors"));
+		for (Operation _op : Operation.values()) {
+			Stats _stats = stats.get(_op);
+			LatencyHistogram _latency = _stats.latency;
+			System.out.println(String.format("%-20s %10d %12.1f %10d %10d %10d %10d %10d",
+					_op, _latency.getCount(), _latency.getCount() / _seconds,
+					_latency.getPercentile(50) / 1000, _latency.getPercentile(99) / 1000,
+					_latency.getPercentile(99.9) / 1000, _stats.conflicts.get(), _stats.errors.get()));
+		}
+		for (String _error : errors) {
+			System.out.println("error: " + _error);
+		}
+	}
+
+	/**
+	 * Check the invariants of the store in memory, then reload it from disk and compare.
+	 * @return the number of violations
+	 */
+	private static int verify(ServletContext context) throws IOException {
+		List<String> _violations = new ArrayList<String>(FileServiceProvider.checkConsistency());
+		Map<CompactId, CompactTag> _before = FileServiceProvider.snapshot();
+		// reset() writes the pending mutations; the constructor loads the store again from disk
+		FileServiceProvider.reset();
+		new FileServiceProvider(context, BenchmarkFixtures.PREFIX);
+		Map<CompactId, CompactTag> _after = FileServiceProvider.snapshot();
+		for (Map.Entry<CompactId, CompactTag> _entry : _before.entrySet()) {
+			if (!_entry.getValue().isSameAs(_after.get(_entry.getKey()))) {
+				_violations.add("tag <" + _entry.getKey() + "> differs after the reload.");
+			}
+		}
+		for (CompactId _id : _after.keySet()) {
+			if (!_before.containsKey(_id)) {
+				_violations.add("tag <" + _id + "> appeared after the reload.");
+			}
+		}
+		for (String _violation : FileServiceProvider.checkConsistency()) {
+			_violations.add("after the reload: " + _violation);
+		}
+		System.out.println(String.format("%-45s %s", "tags", _before.size()));
+		System.out.println(String.format("%-45s %s", "invariant violations", _violations.size()));
+		for (String _violation : _violations.subList(0, Math.min(MAX_ERRORS, _violations.size()))) {
+			System.out.println("violation: " + _violation);
+		}
+		return _violations.size();
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+
+import org.opentdc.util.LanguageCode;
+
+import com.google.gson.Gson;
+
+/**
+ * Measures the heap per tag of the models as read from the data file and of their compact form,
+ * and the cost of CompactTag.getText(LanguageCode) compared to a scan of the texts of a tag.
+ * Not a JMH benchmark: the live heap is a property of the whole JVM, so the footprint is measured
+ * after full collections, e.g.
+ * <pre>
+ * java -Xmx4g -cp ... org.opentdc.tags.file.TagFootprint 1000000 4
+ * </pre>
+ * @author Bruno Kaiser
+ *
+ */
+public class TagFootprint {
+	private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	/**
+	 * @param args number of tags, languages per tag, number of lookups
+	 * @throws IOException if the data file can not be generated or read
+	 */
+	public static void main(String[] args) throws IOException {
+		int _tagCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int _languages = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int _lookups = args.length > 2 ? Integer.parseInt(args[2]) : 10000000;
+
+		File _dataF = BenchmarkFixtures.generateDataFile(BenchmarkFixtures.tempDir(), _tagCount, _languages);
+		long _baseline = liveHeap();
+		MultiLangTag[] _models = null;
+		Reader _reader = new InputStreamReader(new FileInputStream(_dataF), "UTF-8");
+		try {
+			_models = new Gson().fromJson(_reader, MultiLangTag[].class);
+		} finally {
+			_reader.close();
+		}
+		long _modelBytes = liveHeap() - _baseline;
+		CompactTag[] _tags = new CompactTag[_models.length];
+		for (int i = 0; i < _models.length; i++) {
+			_tags[i] = CompactTag.of(_models[i]);
+		}
+		_models = null;
+		long _compactBytes = liveHeap() - _baseline;
+		report("tags", _tags.length);
+		report("languages per tag", _languages);
+		report("heap per tag, models (bytes)", _modelBytes / Math.max(1, _tags.length));
+		report("heap per tag, compact (bytes)", _compactBytes / Math.max(1, _tags.length));
+
+		LanguageCode[] _codes = LanguageCode.values();
+		long _found = 0;
+		// warm up both lookups before they are timed
+		for (int _round = 0; _round < 2; _round++) {
+			Random _random = new Random(42);
+			long _start = System.nanoTime();
+			for (int i = 0; i < _lookups; i++) {
+				CompactTag _tag = _tags[_random.nextInt(_tags.length)];
+				_found += _tag.getText(_codes[_random.nextInt(_codes.length)]) == null ? 0 : 1;
+			}
+			long _getText = System.nanoTime() - _start;
+			_random = new Random(42);
+			_start = System.nanoTime();
+			for (int i = 0; i < _lookups; i++) {
+				CompactTag _tag = _tags[_random.nextInt(_tags.length)];
+				_found += scan(_tag, _codes[_random.nextInt(_codes.length)]) == null ? 0 : 1;
+			}
+			long _scan = System.nanoTime() - _start;
+			if (_round == 1) {
+				report("getText(LanguageCode) (ns/lookup)", String.format("%.1f", (double) _getText / _lookups));
+				report("scan of the texts (ns/lookup)", String.format("%.1f", (double) _scan / _lookups));
+			}
+		}
+		report("texts found", _found);
+	}
+
+	/**
+	 * The lookup by a scan of the texts, for comparison.
+	 */
+	private static CompactText scan(CompactTag tag, LanguageCode languageCode) {
+		for (CompactText _text : tag.getTexts()) {
+			if (_text.getLanguageCode() == languageCode) {
+				return _text;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the heap that is used after three full collections
+	 */
+	private static long liveHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	private static void report(String name, Object value) {
+		System.out.println(String.format("%-45s %s", name, value));
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentdc.service.LocalizedTextModel;
+import org.opentdc.tags.TagModel;
+import org.opentdc.util.LanguageCode;
+
+/**
+ * createText() with the data file written on every mutation (sync) and with persistence
+ * deferred (writeBehind with an interval longer than the measurement).
+ * Each invocation creates a text and deletes it again, so that the catalog keeps its size.
+ * @author Bruno Kaiser
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int tags;
+
+	@Param({ "1", "4" })
+	public int languages;
+
+	@Param({ FileServiceProvider.PERSISTENCE_MODE_SYNC, FileServiceProvider.PERSISTENCE_MODE_WRITE_BEHIND })
+	public String persistence;
+
+	private FileServiceProvider provider;
+	private HttpServletRequest request;
+	private String tagId;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		File _dir = BenchmarkFixtures.tempDir();
+		File _dataF = BenchmarkFixtures.generateDataFile(_dir, tags, languages);
+		FileServiceProvider.reset();
+		provider = new FileServiceProvider(
+				BenchmarkFixtures.servletContext(_dir, BenchmarkFixtures.parameters(_dataF, persistence)), 
+				BenchmarkFixtures.PREFIX);
+		request = BenchmarkFixtures.request();
+		tagId = provider.create(request, new TagModel()).getId();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileServiceProvider.reset();
+	}
+
+	@Benchmark
+	public LocalizedTextModel createText() {
+		LocalizedTextModel _text = new LocalizedTextModel();
+		_text.setLanguageCode(LanguageCode.values()[0]);
+		_text.setText("benchmark");
+		LocalizedTextModel _created = provider.createText(request, tagId, _text);
+		provider.deleteText(tagId, _created.getId());
+		return _created;
+	}
+}
@@ -0,0 +1,561 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.opentdc.util.LanguageCode;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A versioned binary snapshot of the tags store, an alternative to the JSON data file.
+ * The file is memory-mapped and decoded directly into the compact form, without a parser and without
+ * reflection; single tags can be decoded on demand by id.
+ * <pre>
+ * header (48 bytes): magic "TAGS", format version, number of tags, number of localized texts,
+ *                    offset of the string table, offset of the offset table, length of the file,
+ *                    CRC32 of all bytes after the header
+ * records:           one record per tag, ordered by tag id: length, id, audit fields, localized texts
+ * string table:      principals and LanguageCodes, referenced from the records by index; -1 references null
+ * offset table:      the offset of each record, ordered by tag id
+ * </pre>
+ * All numbers are big-endian; strings are UTF-8 with a length prefix. The file is limited to 2GB.
+ * Run main() to convert between the JSON data file and a snapshot.
+ * @author Bruno Kaiser
+ *
+ */
+public class BinarySnapshot {
+	static final int MAGIC = 0x54414753;	// "TAGS"
+	static final int FORMAT_VERSION = 1;
+	static final int HEADER_SIZE = 48;
+	private static final byte ID_UUID = 0;
+	private static final byte ID_STRING = 1;
+	private static final int NULL_REF = -1;
+	// DataOutputStream.size() stops counting at Integer.MAX_VALUE
+	private static final int MAX_BODY_SIZE = Integer.MAX_VALUE - HEADER_SIZE;
+	private static final Logger logger = Logger.getLogger(BinarySnapshot.class.getName());
+	private static final Comparator<CompactTag> BY_ID = new Comparator<CompactTag>() {
+		@Override
+		public int compare(CompactTag a, CompactTag b) {
+			return a.getKey().compareTo(b.getKey());
+		}
+	};
+
+	private final File file;
+	private final MappedByteBuffer buffer;
+	private final int tagCount;
+	private final int textCount;
+	private final int offsetTable;
+	private final String[] strings;
+
+	private BinarySnapshot(
+		File file,
+		MappedByteBuffer buffer,
+		int tagCount,
+		int textCount,
+		int offsetTable,
+		String[] strings
+	) {
+		this.file = file;
+		this.buffer = buffer;
+		this.tagCount = tagCount;
+		this.textCount = textCount;
+		this.offsetTable = offsetTable;
+		this.strings = strings;
+	}
+
+	/**
+	 * @param jsonF a JSON data file
+	 * @return the snapshot next to it, with extension .bin instead of .json
+	 */
+	static File snapshotFile(
+			File jsonF) {
+		String _name = jsonF.getName();
+		if (_name.endsWith(".json")) {
+			_name = _name.substring(0, _name.length() - ".json".length());
+		}
+		return new File(jsonF.getAbsoluteFile().getParentFile(), _name + ".bin");
+	}
+
+	/**
+	 * Map a snapshot and verify its header and checksum. The tags are decoded later by read(), get() or load().
+	 * @param file the snapshot
+	 * @return the opened snapshot
+	 * @throws IOException if the file can not be read, or is not a valid snapshot of a supported version
+	 */
+	static BinarySnapshot open(
+			File file
+	) throws IOException {
+		MappedByteBuffer _buffer;
+		RandomAccessFile _raf = new RandomAccessFile(file, "r");
+		try {
+			long _size = _raf.length();
+			if (_size < HEADER_SIZE || _size > Integer.MAX_VALUE) {
+				throw new IOException("<" + file.getPath() + "> is not a tags snapshot: invalid size " + _size);
+			}
+			// the mapping stays valid after the channel is closed
+			_buffer = _raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, _size);
+		} finally {
+			_raf.close();
+		}
+		if (_buffer.getInt(0) != MAGIC) {
+			throw new IOException("<" + file.getPath() + "> is not a tags snapshot.");
+		}
+		int _version = _buffer.getInt(4);
+		if (_version != FORMAT_VERSION) {
+			throw new IOException("<" + file.getPath() + "> has snapshot format version " + _version + 
+					"; only version " + FORMAT_VERSION + " is supported.");
+		}
+		int _tagCount = _buffer.getInt(8);
+		int _textCount = _buffer.getInt(12);
+		long _stringTable = _buffer.getLong(16);
+		long _offsetTable = _buffer.getLong(24);
+		long _length = _buffer.getLong(32);
+		long _checksum = _buffer.getLong(40);
+		if (_length != _buffer.capacity() || _stringTable < HEADER_SIZE || _offsetTable < _stringTable ||
+				_offsetTable + 8L * _tagCount != _length) {
+			throw new IOException("<" + file.getPath() + "> is truncated or corrupt.");
+		}
+		if (checksum(_buffer) != _checksum) {
+			throw new IOException("<" + file.getPath() + "> is corrupt: checksum mismatch.");
+		}
+		ByteBuffer _in = _buffer.duplicate();
+		_in.position((int) _stringTable);
+		String[] _strings = new String[_in.getInt()];
+		for (int i = 0; i < _strings.length; i++) {
+			_strings[i] = readString(_in);
+		}
+		return new BinarySnapshot(file, _buffer, _tagCount, _textCount, (int) _offsetTable, _strings);
+	}
+
+	private static long checksum(
+			ByteBuffer buffer) {
+		CRC32 _crc = new CRC32();
+		ByteBuffer _in = buffer.duplicate();
+		_in.position(HEADER_SIZE);
+		byte[] _chunk = new byte[64 * 1024];
+		while (_in.hasRemaining()) {
+			int _n = Math.min(_chunk.length, _in.remaining());
+			_in.get(_chunk, 0, _n);
+			_crc.update(_chunk, 0, _n);
+		}
+		return _crc.getValue();
+	}
+
+	/**
+	 * @return the number of tags in the snapshot
+	 */
+	int getTagCount() {
+		return tagCount;
+	}
+
+	/**
+	 * @return the number of localized texts in the snapshot
+	 */
+	int getTextCount() {
+		return textCount;
+	}
+
+	/**
+	 * Decode the tag at a position of the offset table.
+	 * @param position the position, 0 to getTagCount() - 1; the tags are ordered by id
+	 * @return the tag
+	 */
+	CompactTag read(
+			int position) {
+		ByteBuffer _in = buffer.duplicate();
+		_in.position(recordOffset(position) + 4);
+		CompactId _id = readId(_in);
+		long _createdAt = _in.getLong();
+		String _createdBy = string(_in.getInt());
+		long _modifiedAt = _in.getLong();
+		String _modifiedBy = string(_in.getInt());
+		CompactText[] _texts = new CompactText[_in.getInt()];
+		for (int i = 0; i < _texts.length; i++) {
+			CompactId _textId = readId(_in);
+			String _languageCode = string(_in.getInt());
+			// texts without a LanguageCode are kept, as in the JSON data file
+			LanguageCode _lc = _languageCode == null ? null : LanguageCode.valueOf(_languageCode);
+			String _text = readString(_in);
+			long _textCreatedAt = _in.getLong();
+			String _textCreatedBy = string(_in.getInt());
+			long _textModifiedAt = _in.getLong();
+			String _textModifiedBy = string(_in.getInt());
+			_texts[i] = CompactText.of(_textId, _lc, _text, _textCreatedAt, _textCreatedBy, _textModifiedAt, _textModifiedBy);
+		}
+		return CompactTag.of(_id, _createdAt, _createdBy, _modifiedAt, _modifiedBy, _texts);
+	}
+
+	/**
+	 * Decode a single tag by a binary search of the offset table.
+	 * @param id the id of the tag
+	 * @return the tag, or null if it is not in the snapshot
+	 */
+	CompactTag get(
+			CompactId id) {
+		ByteBuffer _in = buffer.duplicate();
+		int _low = 0;
+		int _high = tagCount - 1;
+		while (_low <= _high) {
+			int _mid = (_low + _high) >>> 1;
+			_in.position(recordOffset(_mid) + 4);
+			int _c = readId(_in).compareTo(id);
+			if (_c < 0) {
+				_low = _mid + 1;
+			} else if (_c > 0) {
+				_high = _mid - 1;
+			} else {
+				return read(_mid);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Decode all tags into the indexes. The offset table splits the records into one range per thread.
+	 * @param index the index of tags by id; must be thread-safe if more than one thread is used
+	 * @param textIndex the index of localized texts by id; must be thread-safe if more than one thread is used
+	 * @param threads the number of threads that decode the records
+	 * @return the number of tags loaded
+	 * @throws IOException if a record can not be decoded
+	 */
+	int load(
+		final Map<CompactId, CompactTag> index,
+		final Map<CompactId, CompactText> textIndex,
+		int threads
+	) throws IOException {
+		long _start = System.currentTimeMillis();
+		int _threads = Math.max(1, Math.min(threads, tagCount / 1024));
+		ExecutorService _executor = _threads > 1 ? Executors.newFixedThreadPool(_threads) : null;
+		try {
+			List<Future<?>> _futures = new ArrayList<Future<?>>();
+			for (int t = 0; t < _threads; t++) {
+				final int _from = (int) ((long) tagCount * t / _threads);
+				final int _to = (int) ((long) tagCount * (t + 1) / _threads);
+				Runnable _task = new Runnable() {
+					@Override
+					public void run() {
+						for (int i = _from; i < _to; i++) {
+							CompactTag _tag = read(i);
+							index.put(_tag.getKey(), _tag);
+							for (CompactText _text : _tag.getTexts()) {
+								textIndex.put(_text.getKey(), _text);
+							}
+						}
+					}
+				};
+				if (_executor != null) {
+					_futures.add(_executor.submit(_task));
+				} else {
+					_task.run();
+				}
+			}
+			for (Future<?> _future : _futures) {
+				_future.get();
+			}
+		} catch (InterruptedException _ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("loading <" + file.getPath() + "> was interrupted", _ex);
+		} catch (ExecutionException _ex) {
+			throw new IOException("could not decode <" + file.getPath() + ">: " + _ex.getCause(), _ex.getCause());
+		} catch (RuntimeException _ex) {
+			throw new IOException("could not decode <" + file.getPath() + ">: " + _ex, _ex);
+		} finally {
+			if (_executor != null) {
+				_executor.shutdownNow();
+			}
+		}
+		long _millis = Math.max(1, System.currentTimeMillis() - _start);
+		logger.info("loaded " + tagCount + " tags (" + buffer.capacity() + " bytes) from snapshot <" + file.getPath() + 
+				"> in " + _millis + "ms with " + _threads + " threads; " + (tagCount * 1000L / _millis) + " tags/s.");
+		return tagCount;
+	}
+
+	private int recordOffset(
+			int position) {
+		return (int) buffer.getLong(offsetTable + 8 * position);
+	}
+
+	private String string(
+			int ref) {
+		return ref == NULL_REF ? null : strings[ref];
+	}
+
+	private static CompactId readId(
+			ByteBuffer in) {
+		if (in.get() == ID_UUID) {
+			return CompactId.ofUuid(in.getLong(), in.getLong());
+		}
+		return CompactId.of(readString(in));
+	}
+
+	private static String readString(
+			ByteBuffer in) {
+		int _length = in.getInt();
+		if (_length < 0) {
+			return null;
+		}
+		byte[] _bytes = new byte[_length];
+		in.get(_bytes);
+		return new String(_bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Write the tags to a snapshot. The file is written to a temporary file first and renamed atomically.
+	 * @param tags the tags; may be modified concurrently, each tag is written in one of its states
+	 * @param file the snapshot
+	 * @param force true if the snapshot must be forced to disk before it is renamed
+	 * @return the size of the snapshot in bytes
+	 * @throws IOException if the file could not be written
+	 */
+	static long write(
+		Collection<CompactTag> tags,
+		File file,
+		boolean force
+	) throws IOException {
+		List<CompactTag> _tags = new ArrayList<CompactTag>(tags);
+		Collections.sort(_tags, BY_ID);
+		Map<String, Integer> _refs = new HashMap<String, Integer>();
+		List<String> _strings = new ArrayList<String>();
+		long[] _offsets = new long[_tags.size()];
+		int _textCount = 0;
+		File _tmpF = new File(file.getPath() + ".tmp");
+		CRC32 _crc = new CRC32();
+		FileOutputStream _fos = new FileOutputStream(_tmpF);
+		long _stringTable;
+		long _offsetTable;
+		long _length;
+		try {
+			BufferedOutputStream _bos = new BufferedOutputStream(_fos, 64 * 1024);
+			_bos.write(new byte[HEADER_SIZE]);
+			DataOutputStream _out = new DataOutputStream(new CheckedOutputStream(_bos, _crc));
+			ByteArrayOutputStream _record = new ByteArrayOutputStream(256);
+			DataOutputStream _rec = new DataOutputStream(_record);
+			for (int i = 0; i < _tags.size(); i++) {
+				CompactTag _tag = _tags.get(i);
+				_offsets[i] = HEADER_SIZE + (long) _out.size();
+				_record.reset();
+				writeId(_rec, _tag.getKey());
+				_rec.writeLong(_tag.getCreatedAt());
+				_rec.writeInt(ref(_refs, _strings, _tag.getCreatedBy()));
+				_rec.writeLong(_tag.getModifiedAt());
+				_rec.writeInt(ref(_refs, _strings, _tag.getModifiedBy()));
+				List<CompactText> _texts = _tag.getTexts();
+				_rec.writeInt(_texts.size());
+				for (CompactText _text : _texts) {
+					writeId(_rec, _text.getKey());
+					LanguageCode _lc = _text.getLanguageCode();
+					_rec.writeInt(ref(_refs, _strings, _lc == null ? null : _lc.name()));
+					writeString(_rec, _text.getText());
+					_rec.writeLong(_text.getCreatedAt());
+					_rec.writeInt(ref(_refs, _strings, _text.getCreatedBy()));
+					_rec.writeLong(_text.getModifiedAt());
+					_rec.writeInt(ref(_refs, _strings, _text.getModifiedBy()));
+				}
+				_textCount += _texts.size();
+				_out.writeInt(_record.size());
+				_record.writeTo(_out);
+				if (_out.size() >= MAX_BODY_SIZE) {
+					throw new IOException("the tags do not fit into a snapshot of 2GB.");
+				}
+			}
+			_stringTable = HEADER_SIZE + (long) _out.size();
+			_out.writeInt(_strings.size());
+			for (String _string : _strings) {
+				writeString(_out, _string);
+			}
+			_offsetTable = HEADER_SIZE + (long) _out.size();
+			for (long _offset : _offsets) {
+				_out.writeLong(_offset);
+			}
+			if (_out.size() >= MAX_BODY_SIZE) {
+				throw new IOException("the tags do not fit into a snapshot of 2GB.");
+			}
+			_length = HEADER_SIZE + (long) _out.size();
+			_out.flush();
+			ByteBuffer _header = ByteBuffer.allocate(HEADER_SIZE);
+			_header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(_tags.size()).putInt(_textCount)
+				.putLong(_stringTable).putLong(_offsetTable).putLong(_length).putLong(_crc.getValue());
+			_header.flip();
+			FileChannel _channel = _fos.getChannel();
+			while (_header.hasRemaining()) {
+				_channel.write(_header, HEADER_SIZE - _header.remaining());
+			}
+			if (force) {
+				_fos.getFD().sync();
+			}
+		} finally {
+			_fos.close();
+		}
+		Files.move(_tmpF.toPath(), file.toPath(), 
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return _length;
+	}
+
+	private static int ref(
+		Map<String, Integer> refs,
+		List<String> strings,
+		String value
+	) {
+		if (value == null) {
+			return NULL_REF;
+		}
+		Integer _ref = refs.get(value);
+		if (_ref == null) {
+			_ref = strings.size();
+			strings.add(value);
+			refs.put(value, _ref);
+		}
+		return _ref;
+	}
+
+	private static void writeId(
+		DataOutputStream out,
+		CompactId id
+	) throws IOException {
+		if (id.isUuid()) {
+			out.writeByte(ID_UUID);
+			out.writeLong(id.getMostSignificantBits());
+			out.writeLong(id.getLeastSignificantBits());
+		} else {
+			out.writeByte(ID_STRING);
+			writeString(out, id.toString());
+		}
+	}
+
+	private static void writeString(
+		DataOutputStream out,
+		String value
+	) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] _bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(_bytes.length);
+			out.write(_bytes);
+		}
+	}
+
+	/**
+	 * Convert a JSON data file into a snapshot.
+	 * @param jsonF the JSON data file
+	 * @param snapshotF the snapshot to write
+	 * @return the number of tags converted
+	 * @throws IOException if a file could not be read or written
+	 */
+	public static int convertToBinary(
+		File jsonF,
+		File snapshotF
+	) throws IOException {
+		Map<CompactId, CompactTag> _tags = new HashMap<CompactId, CompactTag>();
+		new StreamingTagLoader(1).load(jsonF, _tags, new HashMap<CompactId, CompactText>());
+		write(_tags.values(), snapshotF, true);
+		return _tags.size();
+	}
+
+	/**
+	 * Convert a snapshot into a JSON data file, e.g. to inspect it or to return to the JSON format.
+	 * @param snapshotF the snapshot
+	 * @param jsonF the JSON data file to write
+	 * @return the number of tags converted
+	 * @throws IOException if a file could not be read or written
+	 */
+	public static int convertToJson(
+		File snapshotF,
+		File jsonF
+	) throws IOException {
+		BinarySnapshot _snapshot = open(snapshotF);
+		Gson _gson = new Gson();
+		JsonWriter _writer = new JsonWriter(new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(jsonF), "UTF-8"), 64 * 1024));
+		try {
+			_writer.beginArray();
+			for (int i = 0; i < _snapshot.getTagCount(); i++) {
+				_gson.toJson(_snapshot.read(i).toMultiLangTag(), MultiLangTag.class, _writer);
+			}
+			_writer.endArray();
+		} finally {
+			_writer.close();
+		}
+		return _snapshot.getTagCount();
+	}
+
+	/**
+	 * Convert between the JSON data file and a snapshot, or describe a snapshot.
+	 * <pre>
+	 * BinarySnapshot toBinary &lt;data.json&gt; &lt;data.bin&gt;
+	 * BinarySnapshot toJson &lt;data.bin&gt; &lt;data.json&gt;
+	 * BinarySnapshot info &lt;data.bin&gt;
+	 * </pre>
+	 * @param args the command and the files
+	 * @throws IOException if a file could not be read or written
+	 */
+	public static void main(
+			String[] args
+	) throws IOException {
+		if (args.length == 3 && args[0].equals("toBinary")) {
+			System.out.println(convertToBinary(new File(args[1]), new File(args[2])) + " tags written to " + args[2]);
+		} else if (args.length == 3 && args[0].equals("toJson")) {
+			System.out.println(convertToJson(new File(args[1]), new File(args[2])) + " tags written to " + args[2]);
+		} else if (args.length == 2 && args[0].equals("info")) {
+			BinarySnapshot _snapshot = open(new File(args[1]));
+			System.out.println(args[1] + ": format version " + FORMAT_VERSION + ", " + _snapshot.getTagCount() + " tags, " + 
+					_snapshot.getTextCount() + " localized texts, " + _snapshot.strings.length + " strings, " + 
+					_snapshot.buffer.capacity() + " bytes, checksum ok");
+		} else {
+			System.err.println("usage: BinarySnapshot toBinary <data.json> <data.bin> | toJson <data.bin> <data.json> | info <data.bin>");
+			System.exit(2);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The versions of the tags store: every mutation of a tag gets the next version, and the log
+ * keeps the latest version of each changed tag, so that the changes since a version can be found
+ * without a scan of the store.
+ * Versions start at the startup time in milliseconds shifted by 20 bits; they increase across restarts,
+ * and a version of a previous run is older than all changes of this run.
+ * The log is bounded; when the oldest entries are evicted, changes since versions before them are no longer known.
+ * @author Bruno Kaiser
+ *
+ */
+class ChangeLog {
+	private static final int VERSION_SHIFT = 20;
+
+	/**
+	 * The latest change of a tag.
+	 */
+	static final class Change {
+		private final CompactId tagId;
+		private final long version;
+		private final boolean deleted;
+
+		Change(CompactId tagId, long version, boolean deleted) {
+			this.tagId = tagId;
+			this.version = version;
+			this.deleted = deleted;
+		}
+
+		CompactId getTagId() {
+			return tagId;
+		}
+
+		long getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return true if the tag was deleted; the change is a tombstone
+		 */
+		boolean isDeleted() {
+			return deleted;
+		}
+	}
+
+	private final int maxEntries;
+	private final long baseVersion;
+	private final ConcurrentSkipListMap<Long, Change> changes = new ConcurrentSkipListMap<Long, Change>();
+	// guarded by this
+	private final Map<CompactId, Long> latest = new HashMap<CompactId, Long>();
+	private long nextVersion;
+	// written after the changes of this version are in the log
+	private volatile long version;
+	private volatile long minVersion;
+
+	/**
+	 * Constructor.
+	 * @param maxEntries the maximal number of tags in the log
+	 */
+	ChangeLog(int maxEntries) {
+		this.maxEntries = Math.max(1, maxEntries);
+		this.baseVersion = System.currentTimeMillis() << VERSION_SHIFT;
+		this.nextVersion = baseVersion;
+		this.version = baseVersion;
+		this.minVersion = baseVersion;
+	}
+
+	/**
+	 * Record the mutations of one write. Each record gets its own version; the log keeps the last one of each tag.
+	 * Called after the indexes were updated, so that a reader that sees a version also sees its data.
+	 * @param records the mutations
+	 * @return the version of the store after the mutations
+	 */
+	synchronized long record(
+			Collection<JournalRecord> records) {
+		for (JournalRecord _record : records) {
+			CompactId _tid = CompactId.of(_record.tid);
+			long _version = ++nextVersion;
+			Long _previous = latest.put(_tid, _version);
+			if (_previous != null) {
+				changes.remove(_previous);
+			}
+			changes.put(_version, new Change(_tid, _version, _record.op == JournalRecord.Operation.DELETE_TAG));
+		}
+		while (latest.size() > maxEntries) {
+			Map.Entry<Long, Change> _oldest = changes.pollFirstEntry();
+			latest.remove(_oldest.getValue().getTagId());
+			minVersion = _oldest.getKey();
+		}
+		version = nextVersion;
+		return nextVersion;
+	}
+
+	/**
+	 * @return the current version of the store
+	 */
+	long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param tagId the id of an existing tag
+	 * @return the version of the last change of the tag; tags that were not changed since they
+	 * were evicted from the log or since startup have the oldest version the log knows
+	 */
+	long getTagVersion(
+			CompactId tagId) {
+		Long _version;
+		synchronized (this) {
+			_version = latest.get(tagId);
+		}
+		return _version == null ? minVersion : _version;
+	}
+
+	/**
+	 * @param tagId the id of a tag
+	 * @param version a version
+	 * @return true if the log knows a change of the tag after this version
+	 */
+	synchronized boolean isChangedAfter(
+			CompactId tagId,
+			long version) {
+		Long _version = latest.get(tagId);
+		return _version != null && _version > version;
+	}
+
+	/**
+	 * Find the changes after a version.
+	 * @param since the version the caller knows
+	 * @param until the current version, read before the indexes
+	 * @return the latest change of each tag changed after since, ordered by version;
+	 * null if the log does not go back to since, or since is not a version of this store
+	 */
+	Collection<Change> changesSince(
+			long since,
+			long until) {
+		if (since < minVersion || since > until) {
+			return null;
+		}
+		ConcurrentNavigableMap<Long, Change> _changes = changes.subMap(since, false, until, true);
+		// entries evicted while the caller iterates are detected by isKnown()
+		return _changes.values();
+	}
+
+	/**
+	 * @param since a version
+	 * @return true if the log still knows all changes after this version
+	 */
+	boolean isKnown(
+			long since) {
+		return since >= minVersion;
+	}
+}
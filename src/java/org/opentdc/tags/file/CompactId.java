@@ -0,0 +1,156 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.UUID;
+
+/**
+ * The id of a tag or localized text in its compact in-memory form.
+ * Ids generated by the service are UUIDs and are held as two longs instead of a 36-character string;
+ * any other id is kept as it is. toString() reproduces the original id.
+ * @author Bruno Kaiser
+ *
+ */
+final class CompactId implements Comparable<CompactId> {
+	// sorts before all other ids; used as a search key
+	static final CompactId MIN = new CompactId(0, 0, "");
+	private final long msb;
+	private final long lsb;
+	// null if the id is a UUID
+	private final String id;
+
+	private CompactId(long msb, long lsb, String id) {
+		this.msb = msb;
+		this.lsb = lsb;
+		this.id = id;
+	}
+
+	/**
+	 * Convert an id into its compact form.
+	 * @param id the id
+	 * @return the compact id
+	 */
+	static CompactId of(String id) {
+		if (isCanonicalUuid(id)) {
+			UUID _uuid = UUID.fromString(id);
+			return new CompactId(_uuid.getMostSignificantBits(), _uuid.getLeastSignificantBits(), null);
+		}
+		return new CompactId(0, 0, id);
+	}
+
+	/**
+	 * @param msb the most significant bits of a UUID
+	 * @param lsb the least significant bits of a UUID
+	 * @return the compact id of the UUID
+	 */
+	static CompactId ofUuid(long msb, long lsb) {
+		return new CompactId(msb, lsb, null);
+	}
+
+	/**
+	 * @return true if the id is a UUID held as two longs
+	 */
+	boolean isUuid() {
+		return id == null;
+	}
+
+	long getMostSignificantBits() {
+		return msb;
+	}
+
+	long getLeastSignificantBits() {
+		return lsb;
+	}
+
+	/**
+	 * Test whether an id is a UUID in the form produced by UUID.toString(), so that it can be restored exactly.
+	 * @param id the id
+	 * @return true if the id is a lowercase UUID with all 36 characters
+	 */
+	private static boolean isCanonicalUuid(String id) {
+		if (id == null || id.length() != 36) {
+			return false;
+		}
+		for (int i = 0; i < 36; i++) {
+			char _c = id.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (_c != '-') {
+					return false;
+				}
+			} else if (!((_c >= '0' && _c <= '9') || (_c >= 'a' && _c <= 'f'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the original id
+	 */
+	@Override
+	public String toString() {
+		return id != null ? id : new UUID(msb, lsb).toString();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof CompactId)) {
+			return false;
+		}
+		CompactId _other = (CompactId) obj;
+		return id == null ? 
+				_other.id == null && msb == _other.msb && lsb == _other.lsb : 
+				id.equals(_other.id);
+	}
+
+	@Override
+	public int hashCode() {
+		if (id != null) {
+			return id.hashCode();
+		}
+		long _hash = msb ^ lsb;
+		return (int) (_hash >> 32) ^ (int) _hash;
+	}
+
+	/**
+	 * Ids that are not UUIDs sort before UUIDs. Among themselves, both sort like their string form,
+	 * because unsigned comparison of the bits orders lowercase hex digits like the characters.
+	 * @see java.lang.Comparable#compareTo(java.lang.Object)
+	 */
+	@Override
+	public int compareTo(CompactId other) {
+		if (id != null || other.id != null) {
+			if (id == null) {
+				return 1;
+			}
+			return other.id == null ? -1 : id.compareTo(other.id);
+		}
+		int _c = compareUnsigned(msb, other.msb);
+		return _c != 0 ? _c : compareUnsigned(lsb, other.lsb);
+	}
+
+	private static int compareUnsigned(long a, long b) {
+		return Long.compare(a + Long.MIN_VALUE, b + Long.MIN_VALUE);
+	}
+}
@@ -0,0 +1,374 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opentdc.service.LocalizedTextModel;
+import org.opentdc.tags.TagModel;
+import org.opentdc.util.LanguageCode;
+
+/**
+ * The compact, immutable in-memory form of a tag with its localized texts.
+ * This is what the index holds: the id is a CompactId, the dates are epoch milliseconds,
+ * the principals are pooled and the texts are kept in a plain array in insertion order.
+ * A shared Layout maps each LanguageCode to its position in this array, so that getText(LanguageCode)
+ * is a single array access; tags with the same languages in the same order share one Layout.
+ * Like MultiLangTag, writers derive new versions with the with... methods and never change one.
+ * TagModels and MultiLangTags are only materialized at the API boundary and for persistence.
+ * @author Bruno Kaiser
+ *
+ */
+final class CompactTag {
+	// stands for a null Date
+	private static final long NO_DATE = Long.MIN_VALUE;
+	private static final CompactText[] NO_TEXTS = new CompactText[0];
+	private final CompactId id;
+	private final long createdAt;
+	private final String createdBy;
+	private final long modifiedAt;
+	private final String modifiedBy;
+	private final CompactText[] texts;
+	private final Layout layout;
+
+	/**
+	 * The positions of the texts by LanguageCode ordinal, shared by all tags with the same sequence of languages.
+	 * A catalog uses only a few sequences, so the pool stays small; past MAX_LAYOUTS, layouts are no longer
+	 * shared, which costs memory but not correctness.
+	 */
+	private static final class Layout {
+		private static final int MAX_LAYOUTS = 4096;
+		private static final LanguageCode[] CODES = LanguageCode.values();
+		private static final ConcurrentHashMap<String, Layout> pool = new ConcurrentHashMap<String, Layout>();
+		static final Layout EMPTY = new Layout(new char[0]);
+		// position + 1 of the text in the array, 0 if there is none; empty if the tag has no texts
+		private final char[] slots;
+
+		private Layout(char[] slots) {
+			this.slots = slots;
+		}
+
+		static Layout of(CompactText[] texts) {
+			if (texts.length == 0) {
+				return EMPTY;
+			}
+			char[] _key = new char[texts.length];
+			for (int i = 0; i < texts.length; i++) {
+				LanguageCode _lc = texts[i].getLanguageCode();
+				_key[i] = _lc == null ? Character.MAX_VALUE : (char) _lc.ordinal();
+			}
+			String _sequence = new String(_key);
+			Layout _layout = pool.get(_sequence);
+			if (_layout == null) {
+				char[] _slots = new char[CODES.length];
+				for (int i = texts.length - 1; i >= 0; i--) {
+					// a tag holds at most one text per LanguageCode; the first one wins, as in a scan
+					if (_key[i] != Character.MAX_VALUE) {
+						_slots[_key[i]] = (char) (i + 1);
+					}
+				}
+				_layout = new Layout(_slots);
+				if (pool.size() < MAX_LAYOUTS) {
+					Layout _pooled = pool.putIfAbsent(_sequence, _layout);
+					if (_pooled != null) {
+						_layout = _pooled;
+					}
+				}
+			}
+			return _layout;
+		}
+
+		/**
+		 * @param languageCode the LanguageCode
+		 * @return the position of the text in this language, or -1
+		 */
+		int indexOf(LanguageCode languageCode) {
+			return slots.length == 0 ? -1 : slots[languageCode.ordinal()] - 1;
+		}
+	}
+
+	private CompactTag(
+		CompactId id,
+		long createdAt,
+		String createdBy,
+		long modifiedAt,
+		String modifiedBy,
+		CompactText[] texts
+	) {
+		this.id = id;
+		this.createdAt = createdAt;
+		this.createdBy = Principals.intern(createdBy);
+		this.modifiedAt = modifiedAt;
+		this.modifiedBy = Principals.intern(modifiedBy);
+		this.texts = texts;
+		this.layout = Layout.of(texts);
+	}
+
+	/**
+	 * Convert a TagModel without localized texts into its compact form.
+	 * @param model the tag; must have an id
+	 * @return the compact form
+	 */
+	static CompactTag of(TagModel model) {
+		return new CompactTag(
+			CompactId.of(model.getId()),
+			toMillis(model.getCreatedAt()),
+			model.getCreatedBy(),
+			toMillis(model.getModifiedAt()),
+			model.getModifiedBy(),
+			NO_TEXTS);
+	}
+
+	/**
+	 * Create a tag from its fields, e.g. as read from a binary snapshot.
+	 */
+	static CompactTag of(
+		CompactId id,
+		long createdAt,
+		String createdBy,
+		long modifiedAt,
+		String modifiedBy,
+		CompactText[] texts
+	) {
+		return new CompactTag(id, createdAt, createdBy, modifiedAt, modifiedBy, texts.length == 0 ? NO_TEXTS : texts);
+	}
+
+	/**
+	 * Convert a MultiLangTag, e.g. as read from the data file, into its compact form.
+	 * @param multiLangTag the tag with its localized texts
+	 * @return the compact form
+	 */
+	static CompactTag of(MultiLangTag multiLangTag) {
+		List<LocalizedTextModel> _models = multiLangTag.getLocalizedTexts();
+		CompactText[] _texts = _models.isEmpty() ? NO_TEXTS : new CompactText[_models.size()];
+		for (int i = 0; i < _texts.length; i++) {
+			_texts[i] = CompactText.of(_models.get(i));
+		}
+		return of(multiLangTag.getModel()).withTexts(_texts);
+	}
+
+	static long toMillis(Date date) {
+		return date == null ? NO_DATE : date.getTime();
+	}
+
+	static Date toDate(long millis) {
+		return millis == NO_DATE ? null : new Date(millis);
+	}
+
+	/**
+	 * Materialize the TagModel. Every call returns a new object that the caller may modify.
+	 * @return the tag
+	 */
+	TagModel toModel() {
+		TagModel _model = new TagModel();
+		_model.setId(id.toString());
+		_model.setCreatedAt(toDate(createdAt));
+		_model.setCreatedBy(createdBy);
+		_model.setModifiedAt(toDate(modifiedAt));
+		_model.setModifiedBy(modifiedBy);
+		return _model;
+	}
+
+	/**
+	 * Materialize the tag with all its localized texts, in the form that is persisted.
+	 * @return the MultiLangTag
+	 */
+	MultiLangTag toMultiLangTag() {
+		return new MultiLangTag(toModel(), toTextModels());
+	}
+
+	/**
+	 * Materialize the localized texts.
+	 * @return the localized texts in insertion order; the caller may modify the list
+	 */
+	List<LocalizedTextModel> toTextModels() {
+		List<LocalizedTextModel> _models = new ArrayList<LocalizedTextModel>(texts.length);
+		for (CompactText _text : texts) {
+			_models.add(_text.toModel());
+		}
+		return _models;
+	}
+
+	CompactId getKey() {
+		return id;
+	}
+
+	String getId() {
+		return id.toString();
+	}
+
+	long getCreatedAt() {
+		return createdAt;
+	}
+
+	String getCreatedBy() {
+		return createdBy;
+	}
+
+	long getModifiedAt() {
+		return modifiedAt;
+	}
+
+	String getModifiedBy() {
+		return modifiedBy;
+	}
+
+	/**
+	 * Compare the content of two versions of a tag, e.g. to find the tags that changed in a reloaded data file.
+	 * @param other another version of the tag, or null
+	 * @return true if both have the same fields and the same localized texts in the same order
+	 */
+	boolean isSameAs(CompactTag other) {
+		if (other == null ||
+				!id.equals(other.id) ||
+				!CompactText.sameTime(createdAt, other.createdAt) ||
+				!CompactText.equal(createdBy, other.createdBy) ||
+				!CompactText.sameTime(modifiedAt, other.modifiedAt) ||
+				!CompactText.equal(modifiedBy, other.modifiedBy) ||
+				texts.length != other.texts.length) {
+			return false;
+		}
+		for (int i = 0; i < texts.length; i++) {
+			if (!texts[i].isSameAs(other.texts[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return a read-only view of the localized texts in insertion order
+	 */
+	List<CompactText> getTexts() {
+		return Collections.unmodifiableList(Arrays.asList(texts));
+	}
+
+	/**
+	 * Retrieve the text in a certain language in constant time, through the shared Layout.
+	 * @param languageCode the LanguageCode to look for
+	 * @return the localized text, or null if there is none in this language
+	 */
+	CompactText getText(LanguageCode languageCode) {
+		if (languageCode == null) {
+			return null;
+		}
+		int _i = layout.indexOf(languageCode);
+		return _i < 0 ? null : texts[_i];
+	}
+
+	/**
+	 * Retrieve a localized text by its id.
+	 * @param textId the id of the localized text
+	 * @return the localized text, or null if this tag does not contain a text with this id
+	 */
+	CompactText getTextById(CompactId textId) {
+		int _i = indexOf(textId);
+		return _i < 0 ? null : texts[_i];
+	}
+
+	private int indexOf(CompactId textId) {
+		for (int i = 0; i < texts.length; i++) {
+			if (texts[i].getKey().equals(textId)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private CompactTag withTexts(CompactText[] texts) {
+		return new CompactTag(id, createdAt, createdBy, modifiedAt, modifiedBy, texts);
+	}
+
+	/**
+	 * Derive a tag with another TagModel, e.g. when a journal record is replayed.
+	 * @param model the new version of the tag; must have the same id
+	 * @return the new tag with the same localized texts
+	 */
+	CompactTag withModel(TagModel model) {
+		return of(model).withTexts(texts);
+	}
+
+	/**
+	 * Derive a tag with another modification.
+	 * @param modifiedAt the time of the modification
+	 * @param modifiedBy the principal that modified the tag
+	 * @return the new tag with the same id, creation and localized texts
+	 */
+	CompactTag withModified(long modifiedAt, String modifiedBy) {
+		return new CompactTag(id, createdAt, createdBy, modifiedAt, modifiedBy, texts);
+	}
+
+	/**
+	 * Derive a tag with an additional localized text.
+	 * @param text the localized text
+	 * @return the new tag, or null if this tag already contains a text with the same LanguageCode
+	 */
+	CompactTag withText(CompactText text) {
+		if (getText(text.getLanguageCode()) != null) {
+			return null;
+		}
+		CompactText[] _texts = Arrays.copyOf(texts, texts.length + 1);
+		_texts[texts.length] = text;
+		return withTexts(_texts);
+	}
+
+	/**
+	 * Derive a tag where the localized text with the same id is replaced.
+	 * @param text the new version of the localized text
+	 * @return the new tag, or null if this tag does not contain a text with this id and LanguageCode
+	 */
+	CompactTag withReplacedText(CompactText text) {
+		int _i = indexOf(text.getKey());
+		if (_i < 0 || texts[_i].getLanguageCode() != text.getLanguageCode()) {
+			return null;
+		}
+		CompactText[] _texts = texts.clone();
+		_texts[_i] = text;
+		return withTexts(_texts);
+	}
+
+	/**
+	 * Derive a tag without a localized text.
+	 * @param textId the id of the localized text
+	 * @return the new tag, or null if this tag does not contain a text with this id
+	 */
+	CompactTag withoutText(CompactId textId) {
+		int _i = indexOf(textId);
+		if (_i < 0) {
+			return null;
+		}
+		if (texts.length == 1) {
+			return withTexts(NO_TEXTS);
+		}
+		CompactText[] _texts = new CompactText[texts.length - 1];
+		System.arraycopy(texts, 0, _texts, 0, _i);
+		System.arraycopy(texts, _i + 1, _texts, _i, texts.length - _i - 1);
+		return withTexts(_texts);
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import org.opentdc.service.LocalizedTextModel;
+import org.opentdc.util.LanguageCode;
+
+/**
+ * The compact, immutable in-memory form of a LocalizedTextModel.
+ * The id is held as a CompactId, the dates as epoch milliseconds and the principals are pooled.
+ * LocalizedTextModels are only materialized at the API boundary with toModel().
+ * @author Bruno Kaiser
+ *
+ */
+final class CompactText {
+	private final CompactId id;
+	private final LanguageCode languageCode;
+	private final String text;
+	private final long createdAt;
+	private final String createdBy;
+	private final long modifiedAt;
+	private final String modifiedBy;
+
+	private CompactText(
+		CompactId id,
+		LanguageCode languageCode,
+		String text,
+		long createdAt,
+		String createdBy,
+		long modifiedAt,
+		String modifiedBy
+	) {
+		this.id = id;
+		this.languageCode = languageCode;
+		this.text = text;
+		this.createdAt = createdAt;
+		this.createdBy = Principals.intern(createdBy);
+		this.modifiedAt = modifiedAt;
+		this.modifiedBy = Principals.intern(modifiedBy);
+	}
+
+	/**
+	 * Convert a LocalizedTextModel into its compact form.
+	 * @param model the localized text; must have an id
+	 * @return the compact form
+	 */
+	static CompactText of(LocalizedTextModel model) {
+		return new CompactText(
+			CompactId.of(model.getId()),
+			model.getLanguageCode(),
+			model.getText(),
+			CompactTag.toMillis(model.getCreatedAt()),
+			model.getCreatedBy(),
+			CompactTag.toMillis(model.getModifiedAt()),
+			model.getModifiedBy());
+	}
+
+	/**
+	 * Create a localized text from its fields, e.g. as read from a binary snapshot.
+	 */
+	static CompactText of(
+		CompactId id,
+		LanguageCode languageCode,
+		String text,
+		long createdAt,
+		String createdBy,
+		long modifiedAt,
+		String modifiedBy
+	) {
+		return new CompactText(id, languageCode, text, createdAt, createdBy, modifiedAt, modifiedBy);
+	}
+
+	/**
+	 * Materialize the LocalizedTextModel. Every call returns a new object that the caller may modify.
+	 * @return the localized text
+	 */
+	LocalizedTextModel toModel() {
+		LocalizedTextModel _model = new LocalizedTextModel();
+		_model.setId(id.toString());
+		_model.setLanguageCode(languageCode);
+		_model.setText(text);
+		_model.setCreatedAt(CompactTag.toDate(createdAt));
+		_model.setCreatedBy(createdBy);
+		_model.setModifiedAt(CompactTag.toDate(modifiedAt));
+		_model.setModifiedBy(modifiedBy);
+		return _model;
+	}
+
+	/**
+	 * Derive a localized text with another text.
+	 * @param text the new text
+	 * @param modifiedAt the time of the modification
+	 * @param modifiedBy the principal that modified the text
+	 * @return the new localized text with the same id, LanguageCode and creation
+	 */
+	CompactText withText(String text, long modifiedAt, String modifiedBy) {
+		return new CompactText(id, languageCode, text, createdAt, createdBy, modifiedAt, modifiedBy);
+	}
+
+	CompactId getKey() {
+		return id;
+	}
+
+	String getId() {
+		return id.toString();
+	}
+
+	LanguageCode getLanguageCode() {
+		return languageCode;
+	}
+
+	String getText() {
+		return text;
+	}
+
+	long getCreatedAt() {
+		return createdAt;
+	}
+
+	String getCreatedBy() {
+		return createdBy;
+	}
+
+	long getModifiedAt() {
+		return modifiedAt;
+	}
+
+	String getModifiedBy() {
+		return modifiedBy;
+	}
+
+	/**
+	 * @param other another localized text
+	 * @return true if both texts have the same id, language, text and audit fields
+	 */
+	boolean isSameAs(CompactText other) {
+		return other != null &&
+				id.equals(other.id) &&
+				languageCode == other.languageCode &&
+				equal(text, other.text) &&
+				sameTime(createdAt, other.createdAt) &&
+				equal(createdBy, other.createdBy) &&
+				sameTime(modifiedAt, other.modifiedAt) &&
+				equal(modifiedBy, other.modifiedBy);
+	}
+
+	/**
+	 * Compare two dates in milliseconds; a date that was written to the data file in a format without
+	 * milliseconds is the same as the date with milliseconds it was written from.
+	 */
+	static boolean sameTime(long a, long b) {
+		return a == b || (a / 1000 == b / 1000 && (a % 1000 == 0 || b % 1000 == 0));
+	}
+
+	static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
@@ -0,0 +1,248 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Watches the data file for changes by other processes, e.g. other instances of the service on a shared volume,
+ * and reloads it in a background thread.
+ * A change is detected by the modification time, size and file key of the file. The provider reports its own
+ * writes with writing() and written(), so that they do not trigger a reload, neither while nor after they run. Besides the events of the WatchService, the file
+ * is checked once per interval, because file systems shared over the network may not report changes of other hosts.
+ * @author Bruno Kaiser
+ *
+ */
+class DataFileWatcher {
+	private static final Logger logger = Logger.getLogger(DataFileWatcher.class.getName());
+	// a writer of the file usually needs a few writes; wait until it is done
+	private static final long SETTLE_MILLIS = 100;
+
+	/**
+	 * Loads the changed file.
+	 */
+	interface Reloader {
+		/**
+		 * @param file the changed file
+		 * @return false if the reload was deferred; the file is checked again after the interval
+		 * @throws IOException if the file could not be read; it is read again after the next change
+		 */
+		boolean reload(File file) throws IOException;
+	}
+
+	/**
+	 * The attributes of the file that change when it is written.
+	 */
+	private static final class Stamp {
+		private final FileTime modified;
+		private final long size;
+		private final Object fileKey;
+
+		Stamp(BasicFileAttributes attributes) {
+			this.modified = attributes.lastModifiedTime();
+			this.size = attributes.size();
+			this.fileKey = attributes.fileKey();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Stamp)) {
+				return false;
+			}
+			Stamp _other = (Stamp) obj;
+			return modified.equals(_other.modified) && size == _other.size &&
+					(fileKey == null ? _other.fileKey == null : fileKey.equals(_other.fileKey));
+		}
+
+		@Override
+		public int hashCode() {
+			return modified.hashCode() * 31 + (int) size;
+		}
+	}
+
+	private final File file;
+	private final Path path;
+	private final long intervalMillis;
+	private final Reloader reloader;
+	private final WatchService watchService;
+	private final Thread thread;
+	// the state of the file that is in the index: last loaded or last written by this process
+	private volatile Stamp known;
+	// true while this process writes the file
+	private volatile boolean writing = false;
+
+	/**
+	 * Constructor; starts watching.
+	 * @param file the data file
+	 * @param intervalMillis the interval in which the file is checked without an event
+	 * @param reloader loads the file after it was changed
+	 * @throws IOException if the directory of the file can not be watched
+	 */
+	DataFileWatcher(
+		File file,
+		long intervalMillis,
+		Reloader reloader
+	) throws IOException {
+		this.file = file;
+		this.path = file.getAbsoluteFile().toPath();
+		this.intervalMillis = Math.max(SETTLE_MILLIS, intervalMillis);
+		this.reloader = reloader;
+		this.known = stamp();
+		this.watchService = path.getFileSystem().newWatchService();
+		path.getParent().register(watchService, 
+				StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "tags-file-watcher");
+		thread.setDaemon(true);
+		thread.start();
+		logger.info("watching <" + file.getPath() + "> for changes; interval=" + this.intervalMillis + "ms");
+	}
+
+	/**
+	 * Suspend the reloads while this process writes the file.
+	 * Called by the writer before it starts; followed by written() or writeFailed().
+	 */
+	void writing() {
+		writing = true;
+	}
+
+	/**
+	 * Record that this process wrote the file, so that the write does not trigger a reload, and resume the reloads.
+	 * Called by the writer right after the file was written.
+	 */
+	void written() {
+		known = stamp();
+		writing = false;
+	}
+
+	/**
+	 * Resume the reloads after this process failed to write the file; the file was not replaced.
+	 */
+	void writeFailed() {
+		writing = false;
+	}
+
+	/**
+	 * Stop watching.
+	 */
+	void shutdown() {
+		try {
+			watchService.close();
+		} catch (IOException _ex) {
+			logger.warning("file watcher could not be closed: " + _ex.getMessage());
+		}
+		thread.interrupt();
+		try {
+			thread.join(10000);
+		} catch (InterruptedException _ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void watch() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey _key = watchService.poll(intervalMillis, TimeUnit.MILLISECONDS);
+				if (_key != null) {
+					boolean _changed = isFileEvent(_key);
+					// coalesce the events of one write
+					Thread.sleep(SETTLE_MILLIS);
+					for (WatchKey _next = watchService.poll(); _next != null; _next = watchService.poll()) {
+						_changed |= isFileEvent(_next);
+					}
+					if (!_changed) {
+						continue;
+					}
+				}
+				check();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException _ex) {
+			// shutdown
+		}
+	}
+
+	/**
+	 * @param key the key of the directory
+	 * @return true if one of the events concerns the data file; the key is reset
+	 */
+	private boolean isFileEvent(
+			WatchKey key) {
+		boolean _found = false;
+		for (WatchEvent<?> _event : key.pollEvents()) {
+			Object _context = _event.context();
+			if (_event.kind() == StandardWatchEventKinds.OVERFLOW || 
+					(_context instanceof Path && path.getFileName().equals(_context))) {
+				_found = true;
+			}
+		}
+		key.reset();
+		return _found;
+	}
+
+	/**
+	 * Reload the file if it differs from the known state.
+	 */
+	private void check() {
+		Stamp _before = stamp();
+		if (writing || _before == null || _before.equals(known)) {
+			return;
+		}
+		try {
+			// if the reload was deferred or the file changed while it was read, it is read again in the next round
+			if (reloader.reload(file) && _before.equals(stamp())) {
+				known = _before;
+			}
+		} catch (IOException | RuntimeException _ex) {
+			logger.warning("<" + file.getPath() + "> could not be reloaded; retrying after the next change: " + _ex.getMessage());
+			known = _before;
+		}
+	}
+
+	/**
+	 * @return the current state of the file, or null if it does not exist
+	 */
+	private Stamp stamp() {
+		try {
+			return new Stamp(Files.readAttributes(path, BasicFileAttributes.class));
+		} catch (IOException _ex) {
+			return null;
+		}
+	}
+}
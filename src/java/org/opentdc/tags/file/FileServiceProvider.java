@@ -23,17 +23,33 @@
  */
 package org.opentdc.tags.file;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 
@@ -56,10 +72,109 @@ import org.opentdc.util.PrettyPrinter;
  *
  */
 public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTag> implements ServiceProvider {
-	private static Map<String, MultiLangTag> index = null;
-	private static Map<String, LocalizedTextModel> textIndex = null;
+	// the tags and localized texts in their compact form; models are only materialized at the API boundary
+	private static ConcurrentMap<CompactId, CompactTag> index = null;
+	private static Map<CompactId, CompactText> textIndex = null;
+	private static SortedTagIndex sortedIndex = null;
+	private static PrefixSearchIndex prefixIndex = null;
+	private static ReverseTextIndex reverseIndex = null;
+	private static WriteBehindFlusher flusher = null;
+	private static MutationJournal journal = null;
+	private static ShardedTagStore shardStore = null;
+	private static ListResultCache listCache = null;
+	private static List<LanguageCode> fallbackLanguages = Collections.singletonList(LanguageCode.getDefaultLanguageCode());
+	// increased by every mutation; results of list() are cached per version
+	private static ChangeLog changeLog = null;
+	private static DataFileWatcher watcher = null;
+	private static File dataFile = null;
+	private static boolean binaryFormat = false;
+	private static ObjectName metricsName = null;
+	private static final TagsMetrics metrics = new TagsMetrics(new TagsMetrics.Gauges() {
+		@Override
+		public int getTagCount() {
+			Map<CompactId, CompactTag> _index = index;
+			return _index == null ? 0 : _index.size();
+		}
+
+		@Override
+		public int getTextCount() {
+			Map<CompactId, CompactText> _textIndex = textIndex;
+			return _textIndex == null ? 0 : _textIndex.size();
+		}
+
+		@Override
+		public int getPendingMutations() {
+			WriteBehindFlusher _flusher = flusher;
+			return _flusher == null ? 0 : _flusher.getDirtyCount();
+		}
+
+		@Override
+		public long getListCacheHits() {
+			ListResultCache _cache = listCache;
+			return _cache == null ? 0 : _cache.getHits();
+		}
+
+		@Override
+		public long getListCacheMisses() {
+			ListResultCache _cache = listCache;
+			return _cache == null ? 0 : _cache.getMisses();
+		}
+
+		@Override
+		public int getListCacheSize() {
+			ListResultCache _cache = listCache;
+			return _cache == null ? 0 : _cache.size();
+		}
+	});
+	// serializes writers of the same tag; writers of different tags mostly proceed in parallel
+	private static final StripedLock writeLocks = new StripedLock(4 * Runtime.getRuntime().availableProcessors());
+	// serializes all writes of the data file
+	private static final Object exportLock = new Object();
+	// sync mode: writes whose version is recorded but whose export has not finished
+	private static final AtomicInteger unexportedWrites = new AtomicInteger();
+	// sync mode: force every write of the data file to disk
+	private static boolean fsyncEachWrite = false;
+	// true if the data file was written without force since it was last forced
+	private static volatile boolean unforced = false;
 	private static final Logger logger = Logger.getLogger(FileServiceProvider.class.getName());
 
+	// servlet context parameters to configure persistence
+	public static final String PERSISTENCE_MODE_PARAM = "tags.persistence.mode";
+	public static final String FLUSH_INTERVAL_PARAM = "tags.persistence.flushInterval";
+	public static final String FLUSH_THRESHOLD_PARAM = "tags.persistence.flushThreshold";
+	public static final String JOURNAL_FILE_PARAM = "tags.persistence.journalFile";
+	public static final String JOURNAL_MAX_BYTES_PARAM = "tags.persistence.journalMaxBytes";
+	public static final String FSYNC_PARAM = "tags.persistence.fsync";
+	public static final String DATA_FILE_PARAM = "tags.persistence.dataFile";
+	public static final String FORMAT_PARAM = "tags.persistence.format";
+	public static final String SHARDS_PARAM = "tags.persistence.shards";
+	public static final String SHARD_DIR_PARAM = "tags.persistence.shardDir";
+	public static final String WATCH_PARAM = "tags.persistence.watch";
+	public static final String WATCH_INTERVAL_PARAM = "tags.persistence.watchInterval";
+	public static final String LOADER_THREADS_PARAM = "tags.startup.loaderThreads";
+	public static final String LIST_CACHE_SIZE_PARAM = "tags.cache.listSize";
+	public static final String CHANGE_LOG_SIZE_PARAM = "tags.changes.logSize";
+	// comma-separated LanguageCodes, or * for all, in which a text may belong to one tag only
+	public static final String UNIQUE_TEXTS_PARAM = "tags.uniqueTexts";
+	public static final String FALLBACK_LANGUAGES_PARAM = "tags.fallbackLanguages";
+	public static final String PERSISTENCE_MODE_SYNC = "sync";
+	public static final String PERSISTENCE_MODE_WRITE_BEHIND = "writeBehind";
+	public static final String PERSISTENCE_MODE_JOURNAL = "journal";
+	public static final String FORMAT_JSON = "json";
+	public static final String FORMAT_BINARY = "binary";
+	private static final long DEFAULT_FLUSH_INTERVAL = 1000;
+	private static final int DEFAULT_FLUSH_THRESHOLD = 100;
+	private static final String DEFAULT_JOURNAL_FN = "/journal.log";
+	private static final String DEFAULT_DATA_FN = "/data.json";
+	private static final String DEFAULT_SHARD_DIR = "/shards";
+	private static final long DEFAULT_JOURNAL_MAX_BYTES = 4 * 1024 * 1024;
+	private static final int DEFAULT_LIST_CACHE_SIZE = 256;
+	private static final int DEFAULT_CHANGE_LOG_SIZE = 65536;
+	private static final long DEFAULT_WATCH_INTERVAL = 5000;
+
+	// list(): with this queryType, the query term prefix=<text> selects the tags whose text starts with <text>
+	public static final String QUERY_TYPE_PREFIX = "prefix";
+
 	/**
 	 * Constructor.
 	 * @param context the servlet context.
@@ -73,19 +188,759 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 		super(context, prefix);
 		logger.info("tags-service.FileServiceProvider.Constructor()");
 		if (index == null) {
-			index = new ConcurrentHashMap<String, MultiLangTag>();
-			textIndex = new ConcurrentHashMap<String, LocalizedTextModel>();
-			List<MultiLangTag> _tags = importJson();
-			for (MultiLangTag _tag : _tags) {
-				index.put(_tag.getModel().getId(), _tag);
-				for (LocalizedTextModel _tm : _tag.getLocalizedTexts()) {
-					textIndex.put(_tm.getId(), _tm);
+			long _importStart = System.currentTimeMillis();
+			int _threads = (int) getLongParameter(context, LOADER_THREADS_PARAM, 
+					Runtime.getRuntime().availableProcessors());
+			shardStore = createShardStore(context, prefix);
+			// shards that are left after sharding was disabled are newer than the data file
+			File _shardDir = getShardDir(context, prefix);
+			ShardedTagStore _unshard = shardStore == null && isPersistent && _shardDir != null ? 
+					ShardedTagStore.existing(_shardDir) : null;
+			binaryFormat = isBinaryFormat(context, prefix);
+			// in binary format, the snapshot is next to the JSON data file; an existing JSON data file is converted
+			File _jsonF = getDataFile(context, prefix);
+			File _dataF = binaryFormat ? BinarySnapshot.snapshotFile(_jsonF) : _jsonF;
+			dataFile = _dataF;
+			boolean _migrateToShards = shardStore != null && !shardStore.exists();
+			boolean _migrateToBinary = binaryFormat && !_dataF.isFile();
+			if (shardStore != null && !_migrateToShards) {
+				index = new ConcurrentHashMap<CompactId, CompactTag>(16, 0.75f, _threads);
+				textIndex = new ConcurrentHashMap<CompactId, CompactText>(16, 0.75f, _threads);
+				shardStore.load(index, textIndex, _threads);
+			} else if (_unshard != null) {
+				index = new ConcurrentHashMap<CompactId, CompactTag>(16, 0.75f, _threads);
+				textIndex = new ConcurrentHashMap<CompactId, CompactText>(16, 0.75f, _threads);
+				_unshard.load(index, textIndex, _threads);
+			} else if (binaryFormat && !_migrateToBinary) {
+				BinarySnapshot _snapshot = BinarySnapshot.open(_dataF);
+				index = new ConcurrentHashMap<CompactId, CompactTag>(_snapshot.getTagCount(), 0.75f, _threads);
+				textIndex = new ConcurrentHashMap<CompactId, CompactText>(_snapshot.getTextCount(), 0.75f, _threads);
+				_snapshot.load(index, textIndex, _threads);
+			} else if (isPersistent && _jsonF != null) {
+				// the data file is created by the first write
+				int _capacity = StreamingTagLoader.estimateTags(_jsonF);
+				index = new ConcurrentHashMap<CompactId, CompactTag>(_capacity, 0.75f, _threads);
+				textIndex = new ConcurrentHashMap<CompactId, CompactText>(2 * _capacity, 0.75f, _threads);
+				if (_jsonF.isFile()) {
+					new StreamingTagLoader(_threads).load(_jsonF, index, textIndex);
+				}
+			} else {
+				index = new ConcurrentHashMap<CompactId, CompactTag>();
+				textIndex = new ConcurrentHashMap<CompactId, CompactText>();
+				long _start = System.currentTimeMillis();
+				List<MultiLangTag> _tags = importJson();
+				for (MultiLangTag _tag : _tags) {
+					CompactTag _compact = CompactTag.of(_tag);
+					index.put(_compact.getKey(), _compact);
+					for (CompactText _text : _compact.getTexts()) {
+						textIndex.put(_text.getKey(), _text);
+					}
+				}
+				logger.info("imported " + _tags.size() + " tags in " + (System.currentTimeMillis() - _start) + "ms.");
+			}
+			metrics.imported(System.currentTimeMillis() - _importStart);
+			String _mode = context.getInitParameter(PERSISTENCE_MODE_PARAM);
+			fsyncEachWrite = Boolean.parseBoolean(context.getInitParameter(FSYNC_PARAM));
+			if (isPersistent && PERSISTENCE_MODE_JOURNAL.equalsIgnoreCase(_mode)) {
+				String _fn = context.getInitParameter(JOURNAL_FILE_PARAM);
+				if (_fn == null || _fn.isEmpty()) {
+					_fn = context.getRealPath("/" + prefix + DEFAULT_JOURNAL_FN);
+				}
+				if (_fn == null) {
+					logger.warning("no location for the journal available; using sync persistence.");
+				} else {
+					journal = new MutationJournal(
+						new File(_fn),
+						getLongParameter(context, JOURNAL_MAX_BYTES_PARAM, DEFAULT_JOURNAL_MAX_BYTES),
+						new Runnable() {
+							@Override
+							public void run() {
+								// the rotated journal is deleted after this export, so the snapshot must be durable
+								exportAll(true);
+							}
+						});
+					journal.replay(new MutationJournal.RecordHandler() {
+						@Override
+						public void apply(JournalRecord record) {
+							applyJournalRecord(record);
+						}
+					});
+				}
+			}
+			sortedIndex = new SortedTagIndex();
+			prefixIndex = new PrefixSearchIndex();
+			// texts that violate the uniqueness constraint in existing data are kept and indexed
+			reverseIndex = new ReverseTextIndex(getUniqueLanguages(context));
+			List<LanguageCode> _fallbacks = getLanguageCodes(context, FALLBACK_LANGUAGES_PARAM);
+			if (!_fallbacks.isEmpty()) {
+				fallbackLanguages = _fallbacks;
+			}
+			for (CompactTag _tag : index.values()) {
+				for (CompactText _text : _tag.getTexts()) {
+					indexText(_tag.getKey(), _text);
 				}
 			}
 			logger.info("indexed " +
 					index.size() + " tags and " +
 					textIndex.size() + " localized texts.");
+			if (isPersistent && PERSISTENCE_MODE_WRITE_BEHIND.equalsIgnoreCase(_mode)) {
+				flusher = new WriteBehindFlusher(
+					new Runnable() {
+						@Override
+						public void run() {
+							exportAll(true);
+						}
+					},
+					getLongParameter(context, FLUSH_INTERVAL_PARAM, DEFAULT_FLUSH_INTERVAL),
+					(int) getLongParameter(context, FLUSH_THRESHOLD_PARAM, DEFAULT_FLUSH_THRESHOLD));
+			}
+			int _cacheSize = (int) getLongParameter(context, LIST_CACHE_SIZE_PARAM, DEFAULT_LIST_CACHE_SIZE);
+			listCache = _cacheSize > 0 ? new ListResultCache(_cacheSize) : null;
+			changeLog = new ChangeLog((int) getLongParameter(context, CHANGE_LOG_SIZE_PARAM, DEFAULT_CHANGE_LOG_SIZE));
+			if (_migrateToShards || (shardStore != null && shardStore.isStale())) {
+				logger.info("writing the tags to " + shardStore.getShards() + " shards.");
+				shardStore.markAllDirty();
+				exportAll(true);
+			}
+			if (_unshard != null) {
+				logger.info("sharding is disabled; writing the tags of the shards to <" + _dataF.getPath() + ">.");
+				exportAll(true);
+				_unshard.deleteAll();
+			}
+			if (_migrateToBinary) {
+				logger.info("writing the tags to snapshot <" + _dataF.getPath() + ">.");
+				exportAll(true);
+			}
+			if (Boolean.parseBoolean(context.getInitParameter(WATCH_PARAM))) {
+				watcher = createWatcher(getLongParameter(context, WATCH_INTERVAL_PARAM, DEFAULT_WATCH_INTERVAL));
+			}
+			registerMetrics(prefix);
+		}
+	}
+
+	/**
+	 * Publish the metrics as MBean org.opentdc.tags:type=FileServiceProvider,name=&lt;prefix&gt;.
+	 * Failing to register is logged only; the service works without it.
+	 * @param prefix the simple class name of the service provider
+	 */
+	private static void registerMetrics(
+			String prefix) {
+		try {
+			ObjectName _name = new ObjectName("org.opentdc.tags:type=FileServiceProvider,name=" + ObjectName.quote(prefix));
+			MBeanServer _server = ManagementFactory.getPlatformMBeanServer();
+			if (!_server.isRegistered(_name)) {
+				_server.registerMBean(metrics, _name);
+			}
+			metricsName = _name;
+		} catch (JMException _ex) {
+			logger.warning("metrics could not be registered: " + _ex.getMessage());
+		}
+	}
+
+	/**
+	 * Remove the MBean registered by registerMetrics().
+	 */
+	private static void unregisterMetrics() {
+		if (metricsName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+			} catch (JMException _ex) {
+				logger.warning("metrics could not be unregistered: " + _ex.getMessage());
+			}
+			metricsName = null;
+		}
+	}
+
+	/**
+	 * @return the metrics of the operations and the store; also available through JMX
+	 */
+	public static TagsMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Locate the data file. In persistent mode, it is read by the streaming loader, written by exportAll()
+	 * and watched; without persistence or a location in the file system, importJson() and exportJson() of the
+	 * parent are used with their default location.
+	 * @param context the servlet context
+	 * @param prefix the simple class name of the service provider
+	 * @return the data file, or null if the web application is not deployed in the file system
+	 */
+	private static File getDataFile(
+			ServletContext context,
+			String prefix) {
+		String _fn = context.getInitParameter(DATA_FILE_PARAM);
+		if (_fn == null || _fn.isEmpty()) {
+			_fn = context.getRealPath("/" + prefix + DEFAULT_DATA_FN);
 		}
+		return _fn == null ? null : new File(_fn);
+	}
+
+	/**
+	 * Read parameter tags.persistence.format. The binary snapshot replaces the JSON data file;
+	 * it is not used for shards, which are always JSON.
+	 * @param context the servlet context
+	 * @param prefix the simple class name of the service provider
+	 * @return true if the store is written to a binary snapshot
+	 */
+	private static boolean isBinaryFormat(
+			ServletContext context,
+			String prefix) {
+		String _format = context.getInitParameter(FORMAT_PARAM);
+		if (_format == null || _format.isEmpty() || FORMAT_JSON.equalsIgnoreCase(_format)) {
+			return false;
+		}
+		if (!FORMAT_BINARY.equalsIgnoreCase(_format)) {
+			logger.warning("ignoring invalid value <" + _format + "> of parameter <" + FORMAT_PARAM + ">; using json.");
+			return false;
+		}
+		if (!isPersistent || shardStore != null) {
+			logger.warning("parameter <" + FORMAT_PARAM + "> is ignored without persistence or with shards; using json.");
+			return false;
+		}
+		if (getDataFile(context, prefix) == null) {
+			logger.warning("no location for the snapshot available; using json.");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Create the sharded store if it is configured.
+	 * @param context the servlet context
+	 * @param prefix the simple class name of the service provider
+	 * @return the sharded store, or null if the tags are kept in a single data file
+	 */
+	private ShardedTagStore createShardStore(
+			ServletContext context,
+			String prefix) {
+		int _shards = (int) getLongParameter(context, SHARDS_PARAM, 0);
+		if (!isPersistent || _shards <= 0) {
+			return null;
+		}
+		File _dir = getShardDir(context, prefix);
+		if (_dir == null) {
+			logger.warning("no location for the shards available; using a single data file.");
+			return null;
+		}
+		return new ShardedTagStore(_dir, _shards);
+	}
+
+	/**
+	 * Locate the directory of the shard files.
+	 * @param context the servlet context
+	 * @param prefix the simple class name of the service provider
+	 * @return the directory, or null if the web application is not deployed in the file system
+	 */
+	private static File getShardDir(
+			ServletContext context,
+			String prefix) {
+		String _dir = context.getInitParameter(SHARD_DIR_PARAM);
+		if (_dir == null || _dir.isEmpty()) {
+			_dir = context.getRealPath("/" + prefix + DEFAULT_SHARD_DIR);
+		}
+		return _dir == null ? null : new File(_dir);
+	}
+
+	/**
+	 * Watch the data file for changes by other processes.
+	 * Only the data file of sync and write-behind mode is complete; with shards or a journal, watching is disabled.
+	 * @param intervalMillis the interval in which the file is checked without an event
+	 * @return the watcher, or null if the data file can not be watched
+	 */
+	private static DataFileWatcher createWatcher(
+			long intervalMillis) {
+		if (!isPersistent || dataFile == null || shardStore != null || journal != null) {
+			logger.warning("parameter <" + WATCH_PARAM + "> requires a data file in sync or writeBehind mode; not watching.");
+			return null;
+		}
+		try {
+			return new DataFileWatcher(dataFile, intervalMillis, new DataFileWatcher.Reloader() {
+				@Override
+				public boolean reload(File file) throws IOException {
+					return reloadDataFile(file);
+				}
+			});
+		} catch (IOException _ex) {
+			logger.warning("<" + dataFile.getPath() + "> can not be watched: " + _ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Apply the data file after it was changed by another process.
+	 * The file is loaded into a separate map and compared with the index, so that only the changed tags are
+	 * replaced. Each tag is swapped in atomically under its write lock; readers are never blocked.
+	 * A tag that was written by this process after the reload started keeps its local state. While mutations of
+	 * this process are not yet written to the data file, e.g. pending in write-behind mode, the reload is deferred,
+	 * because the file would overwrite them.
+	 * The changes are recorded in the change log, so they invalidate the list cache and show up in getChangesSince().
+	 * @param file the data file
+	 * @return false if the reload was deferred
+	 * @throws IOException if the file could not be read or parsed; the index is not changed in this case
+	 */
+	private static boolean reloadDataFile(
+			File file
+	) throws IOException {
+		long _start = System.currentTimeMillis();
+		// the version is read first: a mutation with an older version is either pending or written
+		long _version = changeLog.getVersion();
+		if (hasUnwrittenMutations()) {
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("reload of <" + file.getPath() + "> deferred: mutations are pending.");
+			}
+			return false;
+		}
+		Map<CompactId, CompactTag> _tags = new HashMap<CompactId, CompactTag>();
+		if (binaryFormat) {
+			BinarySnapshot.open(file).load(_tags, new HashMap<CompactId, CompactText>(), 1);
+		} else {
+			new StreamingTagLoader(1).load(file, _tags, new HashMap<CompactId, CompactText>());
+		}
+		List<JournalRecord> _changes = new ArrayList<JournalRecord>();
+		for (CompactTag _tag : _tags.values()) {
+			reloadTag(_tag.getKey(), _tag, _version, _changes);
+		}
+		for (CompactId _tid : index.keySet()) {
+			if (!_tags.containsKey(_tid)) {
+				reloadTag(_tid, null, _version, _changes);
+			}
+		}
+		changeLog.record(_changes);
+		if (logger.isLoggable(Level.INFO)) {
+			logger.info("reloaded <" + file.getPath() + ">: " + _changes.size() + " of " + _tags.size() + 
+					" tags changed in " + (System.currentTimeMillis() - _start) + "ms.");
+		}
+		return true;
+	}
+
+	/**
+	 * Replace a tag by its state in the reloaded data file.
+	 * @param tid the id of the tag
+	 * @param tag the tag in the data file, or null if it was deleted
+	 * @param version the version of the store when the reload started
+	 * @param changes collects the records of the replaced tags
+	 */
+	private static void reloadTag(
+			CompactId tid,
+			CompactTag tag,
+			long version,
+			List<JournalRecord> changes) {
+		ReentrantLock _lock = writeLocks.get(tid.toString());
+		_lock.lock();
+		try {
+			CompactTag _old = index.get(tid);
+			if (changeLog.isChangedAfter(tid, version) || 
+					(_old == null ? tag == null : _old.isSameAs(tag))) {
+				return;
+			}
+			if (_old != null) {
+				for (CompactText _text : _old.getTexts()) {
+					unindexText(tid, _text);
+					textIndex.remove(_text.getKey());
+				}
+			}
+			if (tag == null) {
+				index.remove(tid);
+				changes.add(JournalRecord.deleteTag(tid.toString()));
+			} else {
+				index.put(tid, tag);
+				for (CompactText _text : tag.getTexts()) {
+					textIndex.put(_text.getKey(), _text);
+					indexText(tid, _text);
+				}
+				changes.add(JournalRecord.putTag(tag.toModel()));
+			}
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * Read the languages in which a text may belong to one tag only.
+	 * @param context the servlet context
+	 * @return the languages; empty if the parameter is not set
+	 */
+	private static EnumSet<LanguageCode> getUniqueLanguages(
+			ServletContext context) {
+		String _value = context.getInitParameter(UNIQUE_TEXTS_PARAM);
+		if (_value != null && _value.trim().equals("*")) {
+			return EnumSet.allOf(LanguageCode.class);
+		}
+		EnumSet<LanguageCode> _languages = EnumSet.noneOf(LanguageCode.class);
+		_languages.addAll(getLanguageCodes(context, UNIQUE_TEXTS_PARAM));
+		return _languages;
+	}
+
+	/**
+	 * Read a servlet context parameter with a comma-separated list of LanguageCodes.
+	 * Invalid and repeated codes are logged and ignored.
+	 * @param context the servlet context
+	 * @param name the name of the parameter
+	 * @return the languages in the order of the parameter; empty if the parameter is not set
+	 */
+	private static List<LanguageCode> getLanguageCodes(
+			ServletContext context,
+			String name) {
+		String _value = context.getInitParameter(name);
+		List<LanguageCode> _languages = new ArrayList<LanguageCode>();
+		if (_value == null || _value.trim().isEmpty()) {
+			return _languages;
+		}
+		for (String _code : _value.split(",")) {
+			try {
+				LanguageCode _lang = LanguageCode.valueOf(_code.trim().toUpperCase());
+				if (!_languages.contains(_lang)) {
+					_languages.add(_lang);
+				}
+			} catch (IllegalArgumentException _ex) {
+				logger.warning("ignoring invalid LanguageCode <" + _code.trim() + "> in parameter <" + name + ">.");
+			}
+		}
+		return _languages;
+	}
+
+	/**
+	 * Read a numeric servlet context parameter.
+	 * @param context the servlet context
+	 * @param name the name of the parameter
+	 * @param defaultValue the value to use if the parameter is missing or invalid
+	 * @return the value of the parameter
+	 */
+	private static long getLongParameter(
+			ServletContext context,
+			String name,
+			long defaultValue) {
+		String _value = context.getInitParameter(name);
+		if (_value == null || _value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(_value.trim());
+		} catch (NumberFormatException _ex) {
+			logger.warning("invalid value <" + _value + "> for parameter <" + name + 
+					">; using default <" + defaultValue + ">.");
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Apply a journal record to the index during replay.
+	 * Records carry the complete state of the affected object, so applying them twice does no harm.
+	 * @param record the mutation to apply
+	 */
+	private static void applyJournalRecord(
+			JournalRecord record) {
+		CompactId _tid = CompactId.of(record.tid);
+		CompactTag _tag = index.get(_tid);
+		if (shardStore != null) {	// the shards do not contain the mutations of the journal yet
+			shardStore.markDirty(_tid);
+		}
+		switch (record.op) {
+		case PUT_TAG:
+			if (_tag == null) {
+				index.put(_tid, CompactTag.of(record.tag));
+			} else {
+				index.put(_tid, _tag.withModel(record.tag));
+			}
+			break;
+		case DELETE_TAG:
+			if (index.remove(_tid) != null) {
+				for (CompactText _text : _tag.getTexts()) {
+					textIndex.remove(_text.getKey());
+				}
+			}
+			break;
+		case PUT_TEXT:
+			if (_tag == null) {
+				logger.warning("journal: ignoring text <" + record.lid + "> of unknown tag <" + record.tid + ">.");
+				break;
+			}
+			CompactText _text = CompactText.of(record.text);
+			CompactTag _updated = _tag.getTextById(_text.getKey()) == null ?
+					_tag.withText(_text) : _tag.withReplacedText(_text);
+			if (_updated != null) {
+				index.put(_tid, _updated);
+				textIndex.put(_text.getKey(), _text);
+			} else {
+				logger.warning("journal: ignoring text <" + record.lid + "> because tag <" + record.tid + 
+						"> contains another text with LanguageCode <" + record.text.getLanguageCode() + ">.");
+			}
+			break;
+		case DELETE_TEXT:
+			CompactId _lid = CompactId.of(record.lid);
+			textIndex.remove(_lid);
+			CompactTag _remaining = _tag == null ? null : _tag.withoutText(_lid);
+			if (_remaining != null) {
+				index.put(_tid, _remaining);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Write the complete store to the data file, or only the dirty shards if the store is sharded.
+	 * The data file is replaced atomically, so that it is never torn, e.g. by a crash during a journal compaction.
+	 * Only one thread at a time writes the file, no matter whether it is called by a writer,
+	 * the write-behind flusher or the journal compactor.
+	 * @param force true if the file must be forced to disk, which costs a disk flush; the journal compactor,
+	 * 		the write-behind flusher and the migrations at startup force, writers in sync mode only with FSYNC_PARAM
+	 */
+	private void exportAll(boolean force) {
+		synchronized (exportLock) {
+			long _start = System.nanoTime();
+			if (!force) {
+				unforced = true;
+			}
+			if (shardStore != null) {
+				metrics.exported(_start, shardStore.writeDirty(index.values(), force));
+			} else if (dataFile != null) {
+				// in binary format, dataFile is the snapshot
+				long _bytes = -1;
+				if (watcher != null) {
+					watcher.writing();
+				}
+				try {
+					_bytes = binaryFormat ? BinarySnapshot.write(index.values(), dataFile, force) : 
+						JsonTagWriter.write(index.values(), dataFile, force);
+				} catch (IOException _ex) {
+					throw new InternalServerErrorException("could not write <" + 
+							dataFile.getPath() + ">: " + _ex.getMessage());
+				} finally {
+					if (watcher != null) {
+						if (_bytes < 0) {
+							watcher.writeFailed();
+						} else {
+							watcher.written();
+						}
+					}
+				}
+				metrics.exported(_start, _bytes);
+			} else {
+				exportJson(materializedTags());
+				metrics.exported(_start, -1);
+			}
+		}
+	}
+
+	/**
+	 * A view of the index that materializes the tags one by one while it is iterated,
+	 * so that an export never holds a second copy of the whole catalog.
+	 * @return the tags in the form of the data file
+	 */
+	private static Collection<MultiLangTag> materializedTags() {
+		final Collection<CompactTag> _tags = index.values();
+		return new AbstractCollection<MultiLangTag>() {
+			@Override
+			public Iterator<MultiLangTag> iterator() {
+				final Iterator<CompactTag> _it = _tags.iterator();
+				return new Iterator<MultiLangTag>() {
+					@Override
+					public boolean hasNext() {
+						return _it.hasNext();
+					}
+
+					@Override
+					public MultiLangTag next() {
+						return _it.next().toMultiLangTag();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return _tags.size();
+			}
+		};
+	}
+
+	/**
+	 * Write a mutation to disk.
+	 * Called by writers while they hold the lock of the tag, so that the journal records of a tag
+	 * are in the same order as the mutations.
+	 * In journal mode, only the record is appended to the journal.
+	 * In write-behind mode, the mutation is only recorded and exported later by the flusher.
+	 * @param record the mutation
+	 */
+	private void persist(
+			JournalRecord record) {
+		persist(Collections.singletonList(record));
+	}
+
+	/**
+	 * Write several mutations to disk with a single write of the journal or the data file.
+	 * @param records the mutations
+	 */
+	private void persist(
+			List<JournalRecord> records) {
+		boolean _persist = isPersistent && !records.isEmpty();
+		if (_persist) {
+			if (shardStore != null) {
+				for (JournalRecord _record : records) {
+					shardStore.markDirty(CompactId.of(_record.tid));
+				}
+			}
+			// the mutation is pending before its version is recorded, so that reloadDataFile() either waits for it
+			// or sees a version after which the tag is protected
+			if (flusher != null) {
+				flusher.markDirty();
+			} else if (journal == null) {
+				unexportedWrites.incrementAndGet();
+			}
+		}
+		changeLog.record(records);
+		if (_persist) {
+			if (journal != null) {
+				journal.append(records);
+			} else if (flusher == null) {
+				try {
+					exportAll(fsyncEachWrite);
+				} finally {
+					unexportedWrites.decrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if mutations are not yet written to the data file, e.g. pending in the write-behind flusher;
+	 * waits for a running flush
+	 */
+	private static boolean hasUnwrittenMutations() {
+		WriteBehindFlusher _flusher = flusher;
+		return unexportedWrites.get() > 0 || (_flusher != null && !_flusher.isClean());
+	}
+
+	/**
+	 * Write all pending mutations to disk before returning.
+	 * Callers that need durability in write-behind or journal mode use this; in sync mode it does nothing.
+	 */
+	public static void flush() {
+		if (flusher != null) {
+			flusher.flush();
+		}
+		if (journal != null) {
+			journal.sync();
+		}
+	}
+
+	/**
+	 * Stop watching the data file, stop the write-behind flusher or the journal and write all pending mutations to disk.
+	 * Called by TagsServiceContextListener when the servlet context is destroyed.
+	 */
+	public static synchronized void shutdown() {
+		if (watcher != null) {
+			watcher.shutdown();
+			watcher = null;
+		}
+		if (flusher != null) {
+			flusher.shutdown();
+			flusher = null;
+			logger.info("shutdown() -> pending mutations flushed.");
+		}
+		if (journal != null) {
+			journal.shutdown();
+			journal = null;
+			logger.info("shutdown() -> journal closed.");
+		}
+		if (unforced) {
+			forceDataFile();
+		}
+		unregisterMetrics();
+	}
+
+	/**
+	 * Force the data file or the shards to disk after writes in sync mode that did not force them.
+	 */
+	private static void forceDataFile() {
+		synchronized (exportLock) {
+			try {
+				if (shardStore != null) {
+					shardStore.force();
+				} else if (dataFile != null) {
+					JsonTagWriter.force(dataFile);
+				}
+				unforced = false;
+				logger.info("shutdown() -> data file forced to disk.");
+			} catch (IOException _ex) {
+				logger.warning("could not force the data file to disk: " + _ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Discard the in-memory store, so that the next constructor loads it again from disk.
+	 * Pending mutations are written first. Used by the benchmarks to measure the startup.
+	 */
+	static synchronized void reset() {
+		shutdown();
+		index = null;
+		textIndex = null;
+		sortedIndex = null;
+		prefixIndex = null;
+		reverseIndex = null;
+		listCache = null;
+		changeLog = null;
+		shardStore = null;
+		binaryFormat = false;
+		fsyncEachWrite = false;
+		fallbackLanguages = Collections.singletonList(LanguageCode.getDefaultLanguageCode());
+	}
+
+	/**
+	 * @return the ids of all tags; a snapshot of the index. Used by the benchmarks to sample tags.
+	 */
+	static List<String> tagIds() {
+		List<String> _ids = new ArrayList<String>(index.size());
+		for (CompactId _id : index.keySet()) {
+			_ids.add(_id.toString());
+		}
+		return _ids;
+	}
+
+	/**
+	 * @return a copy of the index, e.g. to compare the store before and after a restart. Used by the soak harness.
+	 */
+	static Map<CompactId, CompactTag> snapshot() {
+		return new HashMap<CompactId, CompactTag>(index);
+	}
+
+	/**
+	 * Check the invariants of the indexes: every localized text belongs to exactly one tag and is the one in textIndex,
+	 * and a tag has at most one text per LanguageCode. Only meaningful while no writer is active.
+	 * @return the violations; empty if the indexes are consistent. Used by the soak harness.
+	 */
+	static List<String> checkConsistency() {
+		List<String> _violations = new ArrayList<String>();
+		Map<CompactId, CompactId> _owners = new HashMap<CompactId, CompactId>(2 * textIndex.size());
+		for (CompactTag _tag : index.values()) {
+			EnumSet<LanguageCode> _languages = EnumSet.noneOf(LanguageCode.class);
+			for (CompactText _text : _tag.getTexts()) {
+				if (_text.getLanguageCode() != null && !_languages.add(_text.getLanguageCode())) {
+					_violations.add("tag <" + _tag.getId() + "> has several texts in <" + _text.getLanguageCode() + ">.");
+				}
+				CompactId _owner = _owners.put(_text.getKey(), _tag.getKey());
+				if (_owner != null) {
+					_violations.add("LocalizedText <" + _text.getId() + "> belongs to tags <" + _owner +
+							"> and <" + _tag.getId() + ">.");
+				}
+				if (!_text.isSameAs(textIndex.get(_text.getKey()))) {
+					_violations.add("LocalizedText <" + _tag.getId() + "/lang/" + _text.getId() +
+							"> differs from its entry in the index.");
+				}
+			}
+		}
+		for (CompactId _id : textIndex.keySet()) {
+			if (!_owners.containsKey(_id)) {
+				_violations.add("LocalizedText <" + _id + "> in the index belongs to no tag.");
+			}
+		}
+		return _violations;
 	}
 
 	/* (non-Javadoc)
@@ -97,32 +952,43 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 		String queryType,
 		int position,
 		int size) {
-		ArrayList<SingleLangTag> _tags = new ArrayList<SingleLangTag>();
-		LocalizedTextModel _ltm = null;
-		LanguageCode _lc = LanguageCode.getLanguageCodeFromQuery(query);
-		for (MultiLangTag _multiLangTag : index.values()) {
-			if (_lc != null) { // return only the texts in this specific language
-				_ltm = _multiLangTag.getLocalizedText(_lc);
-				if (_ltm != null) {
-					_tags.add(new SingleLangTag(_multiLangTag.getModel().getId(), _ltm));
+		long _start = System.nanoTime();
+		try {
+			ListQuery _query = new ListQuery(query, queryType);
+			// if _lc is null, the texts in all languages are returned
+			LanguageCode _lc = LanguageCode.getLanguageCodeFromQuery(_query.getLanguageQuery());
+			TagCursor _cursor = _query.getCursor() == null ? null : TagCursor.decode(_query.getCursor());
+			// the version is read before the indexes, so that a result is never stamped newer than its data
+			long _version = changeLog.getVersion();
+			ListResultCache _cache = listCache;
+			ListResultCache.Key _key = new ListResultCache.Key(_lc, _query.getPrefix(), _query.getCursor(), position, size);
+			List<SortedTagIndex.Entry> _selection = _cache == null ? null : _cache.get(_key, _version);
+			boolean _cached = _selection != null;
+			if (!_cached) {
+				if (_query.getPrefix() != null) {
+					// keyset pagination: with a cursor, position is ignored and the page starts right after the cursor
+					_selection = prefixIndex.prefixPage(_lc, _query.getPrefix(), _cursor, _cursor == null ? position : 0, size);
+				} else if (_cursor != null) {
+					_selection = sortedIndex.pageAfter(_lc, _cursor, size);
+				} else {
+					_selection = sortedIndex.page(_lc, position, size);
 				}
-			} else {  // return all texts in all languages
-				List<LocalizedTextModel> _texts = _multiLangTag.getLocalizedTexts();
-				for (LocalizedTextModel _lm : _texts) {
-					_tags.add(new SingleLangTag(_multiLangTag.getModel().getId(), _lm));
+				if (_cache != null) {
+					_cache.put(_key, _version, _selection);
 				}
 			}
+			if (logger.isLoggable(Level.INFO)) {
+				logger.info("list(<" + query + ">, <" + queryType + 
+						">, <" + position + ">, <" + size + ">) -> " + _selection.size() + 
+						(_cached ? " tags (cached)." : " tags."));
+			}
+			return SortedTagIndex.toTags(_selection);
+		} catch (RuntimeException _ex) {
+			metrics.failed(TagsMetrics.Operation.LIST, _ex);
+			throw _ex;
+		} finally {
+			metrics.called(TagsMetrics.Operation.LIST, _start);
 		}
-		Collections.sort(_tags, SingleLangTag.TagComparator);
-		ArrayList<SingleLangTag> _selection = new ArrayList<SingleLangTag>();
-		for (int i = 0; i < _tags.size(); i++) {
-			if (i >= position && i < (position + size)) {
-				_selection.add(_tags.get(i));
-			}			
-		}
-		logger.info("list(<" + query + ">, <" + queryType + 
-				">, <" + position + ">, <" + size + ">) -> " + _selection.size() + " tags.");
-		return _selection;
 	}
 			
 	/* (non-Javadoc)
@@ -133,35 +999,47 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 		HttpServletRequest request,
 		TagModel tag) 
 	throws DuplicateException, ValidationException {
-		MultiLangTag _multiLangTag = null;
-		logger.info("create(" + PrettyPrinter.prettyPrintAsJSON(tag) + ")");
-		String _id = tag.getId();
-		Date _date = new Date();
-		if (_id == null || _id == "") {
-			_id = UUID.randomUUID().toString();
-			tag.setId(_id);
-			tag.setCreatedAt(_date);
-			tag.setCreatedBy(ServiceUtil.getPrincipal(request));
-			tag.setModifiedAt(_date);
-			tag.setModifiedBy(ServiceUtil.getPrincipal(request));
-			_multiLangTag = new MultiLangTag();
-			_multiLangTag.setModel(tag);
-		} else {
-			_multiLangTag = index.get(_id);
-			if (_multiLangTag != null) {
-				throw new DuplicateException("tag <" + _id + "> exists already.");
+		long _start = System.nanoTime();
+		try {
+			CompactTag _tag = null;
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("create(" + PrettyPrinter.prettyPrintAsJSON(tag) + ")");
 			}
-			else { 	// a new ID was set on the client; we do not allow this
-				throw new ValidationException("tag <" + _id + 
-					"> contains an ID generated on the client. This is not allowed.");
+			String _id = tag.getId();
+			Date _date = new Date();
+			if (_id == null || _id == "") {
+				_id = UUID.randomUUID().toString();
+				tag.setId(_id);
+				tag.setCreatedAt(_date);
+				tag.setCreatedBy(ServiceUtil.getPrincipal(request));
+				tag.setModifiedAt(_date);
+				tag.setModifiedBy(ServiceUtil.getPrincipal(request));
+				_tag = CompactTag.of(tag);
+			} else {
+				if (index.get(CompactId.of(_id)) != null) {
+					throw new DuplicateException("tag <" + _id + "> exists already.");
+				}
+				else { 	// a new ID was set on the client; we do not allow this
+					throw new ValidationException("tag <" + _id + 
+						"> contains an ID generated on the client. This is not allowed.");
+				}
 			}
+			ReentrantLock _lock = writeLocks.get(_id);
+			_lock.lock();
+			try {
+				index.put(_tag.getKey(), _tag);
+				logWrite("create", null, _id, tag);
+				persist(JournalRecord.putTag(tag));
+			} finally {
+				_lock.unlock();
+			}
+			return tag;
+		} catch (RuntimeException _ex) {
+			metrics.failed(TagsMetrics.Operation.CREATE, _ex);
+			throw _ex;
+		} finally {
+			metrics.called(TagsMetrics.Operation.CREATE, _start);
 		}
-		index.put(_id,  _multiLangTag);
-		logger.info("create() -> " + PrettyPrinter.prettyPrintAsJSON(_multiLangTag.getModel()));
-		if (isPersistent) {
-			exportJson(index.values());
-		}
-		return _multiLangTag.getModel();
 	}
 
 	/* (non-Javadoc)
@@ -171,9 +1049,19 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 	public TagModel read(
 		String id) 
 	throws NotFoundException {
-		TagModel _tag = readMultiLangTag(id).getModel();
-		logger.info("read(" + id + ") -> " + PrettyPrinter.prettyPrintAsJSON(_tag));
-		return _tag;
+		long _start = System.nanoTime();
+		try {
+			TagModel _tag = readCompactTag(id).toModel();
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("read(" + id + ") -> " + PrettyPrinter.prettyPrintAsJSON(_tag));
+			}
+			return _tag;
+		} catch (RuntimeException _ex) {
+			metrics.failed(TagsMetrics.Operation.READ, _ex);
+			throw _ex;
+		} finally {
+			metrics.called(TagsMetrics.Operation.READ, _start);
+		}
 	}
 		
 	/**
@@ -185,15 +1073,30 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 	public static MultiLangTag readMultiLangTag(
 			String id
 	) throws NotFoundException {
-		MultiLangTag _multiLangTag = index.get(id);
-		if (_multiLangTag == null) {
-			throw new NotFoundException("tag <" + id
-					+ "> was not found.");
+		MultiLangTag _multiLangTag = readCompactTag(id).toMultiLangTag();
+		if (logger.isLoggable(Level.FINEST)) {
+			logger.finest("readMultiLangTag(" + id + ") -> " + PrettyPrinter.prettyPrintAsJSON(_multiLangTag));
 		}
-		logger.info("readMultiLangTag(" + id + ") -> " + PrettyPrinter.prettyPrintAsJSON(_multiLangTag));
 		return _multiLangTag;
 	}
 	
+	/**
+	 * Retrieve a tag in its compact form from the index.
+	 * @param id the id of the tag
+	 * @return the tag
+	 * @throws NotFoundException if the index did not contain a tag with this id
+	 */
+	private static CompactTag readCompactTag(
+			String id
+	) throws NotFoundException {
+		CompactTag _tag = id == null ? null : index.get(CompactId.of(id));
+		if (_tag == null) {
+			throw new NotFoundException("tag <" + id
+					+ "> was not found.");
+		}
+		return _tag;
+	}
+
 	/**
 	 * @param id
 	 * @param lang
@@ -208,15 +1111,177 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 			logger.warning("lang is null; using default");
 			lang = LanguageCode.getDefaultLanguageCode();
 		}
-		LocalizedTextModel _ltm = readMultiLangTag(id).getLocalizedText(lang);
-		if (_ltm != null) {
-			return _ltm.getText();
+		CompactText _text = readCompactTag(id).getText(lang);
+		if (_text != null) {
+			return _text.getText();
 		}
 		else {
 			return "UNDEFINED";
 		}
 	}
 
+	/**
+	 * Resolve the texts of a batch of tags in one language, e.g. all tags of a page of tagged entities.
+	 * If a tag has no text in this language, the languages of parameter tags.fallbackLanguages are tried in order
+	 * (by default the default LanguageCode). Unknown ids are reported in the result instead of raising an exception.
+	 * @param ids the ids of the tags
+	 * @param lang the requested language
+	 * @return the texts by tag id and the ids that could not be resolved
+	 */
+	public static LocalizedTexts getLocalizedTexts(
+			Collection<String> ids,
+			LanguageCode lang) {
+		return getLocalizedTexts(ids, lang, fallbackLanguages);
+	}
+
+	/**
+	 * Resolve the texts of a batch of tags in one language with an explicit fallback chain.
+	 * @param ids the ids of the tags
+	 * @param lang the requested language
+	 * @param fallbacks the languages to try in order if a tag has no text in lang; may be empty
+	 * @return the texts by tag id and the ids that could not be resolved
+	 */
+	public static LocalizedTexts getLocalizedTexts(
+			Collection<String> ids,
+			LanguageCode lang,
+			List<LanguageCode> fallbacks) {
+		if (lang == null) {
+			logger.warning("lang is null; using default");
+			lang = LanguageCode.getDefaultLanguageCode();
+		}
+		LocalizedTexts _result = new LocalizedTexts(ids.size());
+		Set<String> _seen = new HashSet<String>();
+		for (String _id : ids) {
+			if (_id == null || !_seen.add(_id)) {
+				continue;
+			}
+			CompactTag _tag = index.get(CompactId.of(_id));
+			if (_tag == null) {
+				_result.missing(_id);
+				continue;
+			}
+			CompactText _text = _tag.getText(lang);
+			for (int i = 0; _text == null && i < fallbacks.size(); i++) {
+				_text = _tag.getText(fallbacks.get(i));
+			}
+			if (_text == null) {
+				_result.untranslated(_id);
+			} else {
+				_result.resolved(_id, _text.getText(), _text.getLanguageCode());
+			}
+		}
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("getLocalizedTexts(" + ids.size() + " ids, " + lang + ") -> " + _result.getTexts().size() + 
+					" texts, " + _result.getMissingIds().size() + " missing, " + _result.getUntranslatedIds().size() + " untranslated");
+		}
+		return _result;
+	}
+
+	/**
+	 * The version of the store increases with every mutation. Pollers compare it with the version
+	 * they know to find out whether anything changed, without reading any tags.
+	 * @return the current version of the store
+	 */
+	public static long getVersion() {
+		return changeLog.getVersion();
+	}
+
+	/**
+	 * @param id the id of the tag
+	 * @return the version of the last change of the tag or of one of its localized texts
+	 * @throws NotFoundException if there is no tag with this id
+	 */
+	public static long getTagVersion(
+			String id
+	) throws NotFoundException {
+		return changeLog.getTagVersion(readCompactTag(id).getKey());
+	}
+
+	/**
+	 * @return an entity tag (RFC 7232) for responses that depend on the whole store, e.g. list()
+	 */
+	public static String getETag() {
+		return toETag(getVersion());
+	}
+
+	/**
+	 * @param id the id of the tag
+	 * @return an entity tag (RFC 7232) for responses that depend on one tag only, e.g. read() and listTexts()
+	 * @throws NotFoundException if there is no tag with this id
+	 */
+	public static String getETag(
+			String id
+	) throws NotFoundException {
+		return toETag(getTagVersion(id));
+	}
+
+	private static String toETag(
+			long version) {
+		return "\"" + Long.toString(version, 36) + "\"";
+	}
+
+	/**
+	 * Find the tags that changed after a version of the store, so that pollers only transfer the changes.
+	 * A tag that changed several times is returned once, in its current state; deleted tags are returned as tombstones.
+	 * If the changes are no longer known (the version is from before a restart, or older than the
+	 * last tags.changes.logSize changed tags), the result is a reset and the caller has to reload all tags.
+	 * @param since a version returned by getVersion() or by a previous call
+	 * @return the changes and the version to pass to the next call
+	 */
+	public static TagChanges getChangesSince(
+			long since) {
+		// the version is read before the indexes, so that no change after it is lost
+		long _version = changeLog.getVersion();
+		if (since == _version) {
+			return new TagChanges(since, _version, false);
+		}
+		Collection<ChangeLog.Change> _changes = changeLog.changesSince(since, _version);
+		TagChanges _result = new TagChanges(since, _version, _changes == null);
+		if (_changes != null) {
+			for (ChangeLog.Change _change : _changes) {
+				if (_change.isDeleted()) {
+					_result.deleted(_change.getTagId().toString());
+				} else {
+					// a tag deleted in the meantime is skipped; its tombstone comes with the next call
+					CompactTag _tag = index.get(_change.getTagId());
+					if (_tag != null) {
+						_result.changed(_tag.toMultiLangTag());
+					}
+				}
+			}
+			if (!changeLog.isKnown(since)) {
+				_result = new TagChanges(since, _version, true);
+			}
+		}
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("getChangesSince(" + since + ") -> " + (_result.isReset() ? "reset" : 
+					_result.getChangedTags().size() + " changed, " + _result.getDeletedIds().size() + " deleted") + 
+					", version " + _version);
+		}
+		return _result;
+	}
+
+	/**
+	 * Resolve a text to the tags that have it in a language; the reverse of getLocalizedText().
+	 * The comparison ignores case and accents, and costs O(1) instead of a scan of all tags.
+	 * @param text the text
+	 * @param lang the language of the text
+	 * @return the ids of the tags; empty if no tag has this text. If the language is unique, there is at most one id.
+	 */
+	public static List<String> findTagIds(
+			String text,
+			LanguageCode lang) {
+		if (lang == null) {
+			logger.warning("lang is null; using default");
+			lang = LanguageCode.getDefaultLanguageCode();
+		}
+		List<String> _ids = reverseIndex.lookupIds(lang, text);
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("findTagIds(" + text + ", " + lang + ") -> " + _ids);
+		}
+		return _ids;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.opentdc.tags.ServiceProvider#update(java.lang.String, org.opentdc.tags.TagModel)
 	 */
@@ -226,25 +1291,35 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 		String id, 
 		TagModel tag
 	) throws NotFoundException, ValidationException {
-		MultiLangTag _multiLangTag = readMultiLangTag(id);
-		TagModel _tagModel = _multiLangTag.getModel();
-		if (! _tagModel.getCreatedAt().equals(tag.getCreatedAt())) {
-			logger.warning("tag <" + id + ">: ignoring createdAt value <" + tag.getCreatedAt().toString() + 
-					"> because it was set on the client.");
-		}
-		if (! _tagModel.getCreatedBy().equalsIgnoreCase(tag.getCreatedBy())) {
-			logger.warning("tag <" + id + ">: ignoring createdBy value <" + tag.getCreatedBy() +
-					"> because it was set on the client.");
-		}
-		_tagModel.setModifiedAt(new Date());
-		_tagModel.setModifiedBy(ServiceUtil.getPrincipal(request));
-		_multiLangTag.setModel(_tagModel);
-		index.put(id, _multiLangTag);
-		logger.info("update(" + id + ") -> " + PrettyPrinter.prettyPrintAsJSON(_tagModel));
-		if (isPersistent) {
-			exportJson(index.values());
+		long _start = System.nanoTime();
+		try {
+			ReentrantLock _lock = writeLocks.get(id);
+			_lock.lock();
+			try {
+				CompactTag _tag = readCompactTag(id);
+				if (_tag.getCreatedAt() != CompactTag.toMillis(tag.getCreatedAt())) {
+					logger.warning("tag <" + id + ">: ignoring createdAt value <" + tag.getCreatedAt().toString() + 
+							"> because it was set on the client.");
+				}
+				if (! _tag.getCreatedBy().equalsIgnoreCase(tag.getCreatedBy())) {
+					logger.warning("tag <" + id + ">: ignoring createdBy value <" + tag.getCreatedBy() +
+							"> because it was set on the client.");
+				}
+				_tag = _tag.withModified(new Date().getTime(), ServiceUtil.getPrincipal(request));
+				index.put(_tag.getKey(), _tag);
+				TagModel _tagModel = _tag.toModel();
+				logWrite("update", null, id, _tagModel);
+				persist(JournalRecord.putTag(_tagModel));
+				return _tagModel;
+			} finally {
+				_lock.unlock();
+			}
+		} catch (RuntimeException _ex) {
+			metrics.failed(TagsMetrics.Operation.UPDATE, _ex);
+			throw _ex;
+		} finally {
+			metrics.called(TagsMetrics.Operation.UPDATE, _start);
 		}
-		return _tagModel;
 	}
 
 	/* (non-Javadoc)
@@ -254,25 +1329,42 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 	public void delete(
 		String id) 
 	throws NotFoundException, InternalServerErrorException {
-		MultiLangTag _multiLangTag = readMultiLangTag(id);  // throws NotFound
-		if (index.remove(id) == null) {
-			throw new InternalServerErrorException("tag <" + id
-				+ "> can not be removed, because it does not exist in the index");
-		} else {			// remove was ok
-			// remove all LocalizedTexts members
-			for (LocalizedTextModel _ltm : _multiLangTag.getLocalizedTexts()) {
-				if (textIndex.remove(_ltm.getId()) == null) {
-					throw new InternalServerErrorException("tag <" + id +
-						">: LocalizedText <" + _ltm.getId() + 
-						"> could not be removed, because it does not exist in the index.");
-				} else {
-					logger.info("delete(" + id + "): LocalizedText <" + _ltm.getId() + "> removed from the index.");
+		long _start = System.nanoTime();
+		try {
+			ReentrantLock _lock = writeLocks.get(id);
+			_lock.lock();
+			try {
+				CompactTag _tag = readCompactTag(id);  // throws NotFound
+				if (index.remove(_tag.getKey()) == null) {
+					throw new InternalServerErrorException("tag <" + id
+						+ "> can not be removed, because it does not exist in the index");
+				} else {			// remove was ok
+					// remove all LocalizedTexts members
+					for (CompactText _text : _tag.getTexts()) {
+						unindexText(_tag.getKey(), _text);
+						if (textIndex.remove(_text.getKey()) == null) {
+							throw new InternalServerErrorException("tag <" + id +
+								">: LocalizedText <" + _text.getId() + 
+								"> could not be removed, because it does not exist in the index.");
+						} else {
+							if (logger.isLoggable(Level.FINE)) {
+								logger.fine("delete(" + id + "): LocalizedText <" + _text.getId() + "> removed from the index.");
+							}
+						}
+					}
+					if (logger.isLoggable(Level.INFO)) {
+						logger.info("delete(" + id + ") -> tag removed from index.");
+					}
 				}
+				persist(JournalRecord.deleteTag(id));
+			} finally {
+				_lock.unlock();
 			}
-			logger.info("delete(" + id + ") -> tag removed from index.");
-		}
-		if (isPersistent) {
-			exportJson(index.values());
+		} catch (RuntimeException _ex) {
+			metrics.failed(TagsMetrics.Operation.DELETE, _ex);
+			throw _ex;
+		} finally {
+			metrics.called(TagsMetrics.Operation.DELETE, _start);
 		}
 	}
 
@@ -287,19 +1379,37 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 			String query, 
 			int position, 
 			int size) {
-		List<LocalizedTextModel> _localizedTexts = readMultiLangTag(tid).getLocalizedTexts();
-		Collections.sort(_localizedTexts, LocalizedTextModel.LocalizedTextComparator);
-		
-		ArrayList<LocalizedTextModel> _selection = new ArrayList<LocalizedTextModel>();
-		for (int i = 0; i < _localizedTexts.size(); i++) {
-			if (i >= position && i < (position + size)) {
-				_selection.add(_localizedTexts.get(i));
+		long _start = System.nanoTime();
+		try {
+			List<LocalizedTextModel> _localizedTexts = readCompactTag(tid).toTextModels();
+			Collections.sort(_localizedTexts, LocalizedTextModel.LocalizedTextComparator);
+			// a tag has at most one text per LanguageCode, so the list is short and a linear seek is cheap
+			int _from = position;
+			String _cursor = new ListQuery(query, queryType).getCursor();
+			if (_cursor != null) {	// keyset pagination: the page starts right after the text with this id
+				for (int i = 0; i < _localizedTexts.size(); i++) {
+					if (_localizedTexts.get(i).getId().equals(_cursor)) {
+						_from = i + 1;
+						break;
+					}
+				}
 			}
+			_from = Math.max(0, Math.min(_from, _localizedTexts.size()));
+			int _to = (int) Math.min((long) _from + Math.max(0, size), _localizedTexts.size());
+			ArrayList<LocalizedTextModel> _selection = 
+					new ArrayList<LocalizedTextModel>(_localizedTexts.subList(_from, _to));
+			if (logger.isLoggable(Level.INFO)) {
+				logger.info("listTexts(<" + tid + ">, <" + query + ">, <" + queryType + 
+						">, <" + position + ">, <" + size + ">) -> " + _selection.size()
+						+ " values");
+			}
+			return _selection;
+		} catch (RuntimeException _ex) {
+			metrics.failed(TagsMetrics.Operation.LIST_TEXTS, _ex);
+			throw _ex;
+		} finally {
+			metrics.called(TagsMetrics.Operation.LIST_TEXTS, _start);
 		}
-		logger.info("listTexts(<" + tid + ">, <" + query + ">, <" + queryType + 
-				">, <" + position + ">, <" + size + ">) -> " + _selection.size()
-				+ " values");
-		return _selection;
 	}
 
 	/* (non-Javadoc)
@@ -311,53 +1421,66 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 			String tid, 
 			LocalizedTextModel tag)
 			throws DuplicateException, ValidationException {
-		if (tag.getText() == null || tag.getText().isEmpty()) {
-			throw new ValidationException("LocalizedText <" + tid + "/lang/" + tag.getId() + 
-					"> must contain a valid text.");
-		}
-		// enforce that the title is a single word
-		StringTokenizer _tokenizer = new StringTokenizer(tag.getText());
-		if (_tokenizer.countTokens() != 1) {
-			throw new ValidationException("LocalizedText <" + tid + "/lang/" + tag.getId() + 
-					"> must consist of exactly one word <" + tag.getText() + "> (is " + _tokenizer.countTokens() + ").");
-		}
-		MultiLangTag _multiLangTag = readMultiLangTag(tid);
-		if (tag.getLanguageCode() == null) {
-			throw new ValidationException("LocalizedText <" + tid + "/lang/" + tag.getId() + 
-					"> must contain a LanguageCode.");
-		}
-		if (_multiLangTag.containsLocalizedText(tag.getLanguageCode())) {
-			throw new DuplicateException("LocalizedText with LanguageCode <" + tag.getLanguageCode() + 
-					"> exists already in tag <" + tid + ">.");
-		}
-		String _id = tag.getId();
-		if (_id == null || _id.isEmpty()) {
-			_id = UUID.randomUUID().toString();
-		} else {
-			if (textIndex.get(_id) != null) {
-				throw new DuplicateException("LocalizedText with id <" + _id + 
-						"> exists alreday in index.");
-			}
-			else {
-				throw new ValidationException("LocalizedText <" + _id +
-						"> contains an ID generated on the client. This is not allowed.");
-			}
-		}
+		long _start = System.nanoTime();
+		try {
+			ReentrantLock _lock = writeLocks.get(tid);
+			_lock.lock();
+			try {
+				validateText(tid, tag.getId(), tag.getText());
+				readCompactTag(tid);
+				if (tag.getLanguageCode() == null) {
+					throw new ValidationException("LocalizedText <" + tid + "/lang/" + tag.getId() + 
+							"> must contain a LanguageCode.");
+				}
+				String _id = tag.getId();
+				if (_id == null || _id.isEmpty()) {
+					_id = UUID.randomUUID().toString();
+				} else {
+					if (textIndex.get(CompactId.of(_id)) != null) {
+						throw new DuplicateException("LocalizedText with id <" + _id + 
+								"> exists alreday in index.");
+					}
+					else {
+						throw new ValidationException("LocalizedText <" + _id +
+								"> contains an ID generated on the client. This is not allowed.");
+					}
+				}
 
-		tag.setId(_id);
-		Date _date = new Date();
-		tag.setCreatedAt(_date);
-		tag.setCreatedBy(ServiceUtil.getPrincipal(request));
-		tag.setModifiedAt(_date);
-		tag.setModifiedBy(ServiceUtil.getPrincipal(request));
+				tag.setId(_id);
+				Date _date = new Date();
+				tag.setCreatedAt(_date);
+				tag.setCreatedBy(ServiceUtil.getPrincipal(request));
+				tag.setModifiedAt(_date);
+				tag.setModifiedBy(ServiceUtil.getPrincipal(request));
 		
-		textIndex.put(_id, tag);
-		_multiLangTag.addText(tag);
-		logger.info("createText(" + tid + "/lang/" + tag.getId() + ") -> " + PrettyPrinter.prettyPrintAsJSON(tag));
-		if (isPersistent) {
-			exportJson(index.values());
+				// there is at most one text per LanguageCode
+				CompactText _text = CompactText.of(tag);
+				CompactTag _tag = readCompactTag(tid);
+				if (_tag.getText(_text.getLanguageCode()) != null) {
+					throw new DuplicateException("LocalizedText with LanguageCode <" + tag.getLanguageCode() + 
+							"> exists already in tag <" + tid + ">.");
+				}
+				// the lock of the tag is held, so the tag can not get another text in this language until it is replaced
+				reserveText(_tag.getKey(), _text.getLanguageCode(), _text.getText());
+				CompactTag _updated = null;
+				do {
+					_tag = readCompactTag(tid);
+					_updated = _tag.withText(_text);
+				} while (!index.replace(_tag.getKey(), _tag, _updated));
+				textIndex.put(_text.getKey(), _text);
+				indexText(_tag.getKey(), _text);
+				logWrite("createText", tid, _id, tag);
+				persist(JournalRecord.putText(tid, tag));
+				return tag;
+			} finally {
+				_lock.unlock();
+			}
+		} catch (RuntimeException _ex) {
+			metrics.failed(TagsMetrics.Operation.CREATE_TEXT, _ex);
+			throw _ex;
+		} finally {
+			metrics.called(TagsMetrics.Operation.CREATE_TEXT, _start);
 		}
-		return tag;
 	}
 
 	/* (non-Javadoc)
@@ -368,15 +1491,26 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 			String tid, 
 			String lid)
 			throws NotFoundException {
-		readMultiLangTag(tid);
-		LocalizedTextModel _localizedText = textIndex.get(lid);
-		if (_localizedText == null) {
-			throw new NotFoundException("LocalizedText <" + tid + "/lang/" + lid +
-					"> was not found.");
+		long _start = System.nanoTime();
+		try {
+			readCompactTag(tid);
+			CompactText _text = lid == null ? null : textIndex.get(CompactId.of(lid));
+			if (_text == null) {
+				throw new NotFoundException("LocalizedText <" + tid + "/lang/" + lid +
+						"> was not found.");
+			}
+			LocalizedTextModel _localizedText = _text.toModel();
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("readText(" + tid + "/lang/" + lid + ") -> "
+						+ PrettyPrinter.prettyPrintAsJSON(_localizedText));
+			}
+			return _localizedText;
+		} catch (RuntimeException _ex) {
+			metrics.failed(TagsMetrics.Operation.READ_TEXT, _ex);
+			throw _ex;
+		} finally {
+			metrics.called(TagsMetrics.Operation.READ_TEXT, _start);
 		}
-		logger.info("readText(" + tid + "/lang/" + lid + ") -> "
-				+ PrettyPrinter.prettyPrintAsJSON(_localizedText));
-		return _localizedText;
 	}
 
 	/* (non-Javadoc)
@@ -389,43 +1523,74 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 			String lid,
 			LocalizedTextModel tag) 
 					throws NotFoundException, ValidationException {
-		readMultiLangTag(tid);
-		LocalizedTextModel _localizedText = textIndex.get(lid);
-		if (_localizedText == null) {
-			throw new NotFoundException("LocalizedText <" + tid + "/lang/" + lid +
-					"> was not found.");
-		}
-		if (tag.getText() == null || tag.getText().isEmpty()) {
-			throw new ValidationException("LocalizedText <" + tid + "/lang/" + lid + 
-					"> must contain a valid text.");
-		}
-		// enforce that the title is a single word
-		StringTokenizer _tokenizer = new StringTokenizer(tag.getText());
-		if (_tokenizer.countTokens() != 1) {
-			throw new ValidationException("LocalizedText <" + tid + "/lang/" + lid + 
-					"> must consist of exactly one word <" + tag.getText() + "> (is " + _tokenizer.countTokens() + ").");
-		}
-		if (! _localizedText.getCreatedAt().equals(tag.getCreatedAt())) {
-			logger.warning("LocalizedText <" + tid + "/lang/" + lid + ">: ignoring createAt value <" 
-					+ tag.getCreatedAt().toString() + "> because it was set on the client.");
-		}
-		if (! _localizedText.getCreatedBy().equalsIgnoreCase(tag.getCreatedBy())) {
-			logger.warning("LocalizedText <" + tid + "/lang/" + lid + ">: ignoring createBy value <"
-					+ tag.getCreatedBy() + "> because it was set on the client.");
-		}
-		if (_localizedText.getLanguageCode() != tag.getLanguageCode()) {
-			throw new ValidationException("LocalizedText <" + tid + "/lang/" + lid + 
-					">: it is not allowed to change the LanguageCode.");
-		}
-		_localizedText.setText(tag.getText());
-		_localizedText.setModifiedAt(new Date());
-		_localizedText.setModifiedBy(ServiceUtil.getPrincipal(request));
-		textIndex.put(lid, _localizedText);
-		logger.info("updateText(" + tid + ", " + lid + ") -> " + PrettyPrinter.prettyPrintAsJSON(_localizedText));
-		if (isPersistent) {
-			exportJson(index.values());
+		long _start = System.nanoTime();
+		try {
+			ReentrantLock _lock = writeLocks.get(tid);
+			_lock.lock();
+			try {
+				CompactId _lid = lid == null ? null : CompactId.of(lid);
+				// only a text of this tag is found, before anything is reserved for it
+				CompactText _text = _lid == null ? null : readCompactTag(tid).getTextById(_lid);
+				if (_text == null) {
+					throw new NotFoundException("LocalizedText <" + tid + "/lang/" + lid +
+							"> was not found.");
+				}
+				validateText(tid, lid, tag.getText());
+				if (_text.getCreatedAt() != CompactTag.toMillis(tag.getCreatedAt())) {
+					logger.warning("LocalizedText <" + tid + "/lang/" + lid + ">: ignoring createAt value <" 
+							+ tag.getCreatedAt().toString() + "> because it was set on the client.");
+				}
+				if (! _text.getCreatedBy().equalsIgnoreCase(tag.getCreatedBy())) {
+					logger.warning("LocalizedText <" + tid + "/lang/" + lid + ">: ignoring createBy value <"
+							+ tag.getCreatedBy() + "> because it was set on the client.");
+				}
+				if (_text.getLanguageCode() != tag.getLanguageCode()) {
+					throw new ValidationException("LocalizedText <" + tid + "/lang/" + lid + 
+							">: it is not allowed to change the LanguageCode.");
+				}
+				CompactText _old = _text;
+				boolean _sameKey = ReverseTextIndex.sameKey(_old.getText(), tag.getText());
+				if (!_sameKey) {
+					reserveText(CompactId.of(tid), _old.getLanguageCode(), tag.getText());
+				}
+				// compact texts are immutable; the new version replaces the current one
+				_text = _text.withText(tag.getText(), new Date().getTime(), ServiceUtil.getPrincipal(request));
+				CompactTag _tag = null;
+				CompactTag _updated = null;
+				boolean _committed = false;
+				try {
+					do {
+						_tag = readCompactTag(tid);
+						_updated = _tag.withReplacedText(_text);
+						if (_updated == null) {
+							throw new NotFoundException("LocalizedText <" + tid + "/lang/" + lid +
+									"> was not found.");
+						}
+					} while (!index.replace(_tag.getKey(), _tag, _updated));
+					_committed = true;
+				} finally {
+					if (!_committed && !_sameKey) {	// release the reservation of the new text
+						reverseIndex.remove(CompactId.of(tid), _old.getLanguageCode(), tag.getText());
+					}
+				}
+				textIndex.put(_lid, _text);
+				indexText(_tag.getKey(), _text);
+				if (!_sameKey) {
+					reverseIndex.remove(_tag.getKey(), _old.getLanguageCode(), _old.getText());
+				}
+				LocalizedTextModel _localizedText = _text.toModel();
+				logWrite("updateText", tid, lid, _localizedText);
+				persist(JournalRecord.putText(tid, _localizedText));
+				return _localizedText;
+			} finally {
+				_lock.unlock();
+			}
+		} catch (RuntimeException _ex) {
+			metrics.failed(TagsMetrics.Operation.UPDATE_TEXT, _ex);
+			throw _ex;
+		} finally {
+			metrics.called(TagsMetrics.Operation.UPDATE_TEXT, _start);
 		}
-		return _localizedText;
 	}
 
 	/* (non-Javadoc)
@@ -436,29 +1601,397 @@ public class FileServiceProvider extends AbstractFileServiceProvider<MultiLangTa
 			String tid, 
 			String lid) 
 					throws NotFoundException, InternalServerErrorException {
-		MultiLangTag _multiLangTag = readMultiLangTag(tid);
-		LocalizedTextModel _localizedText = textIndex.get(lid);
-		if (_localizedText == null) {
-			throw new NotFoundException("LocalizedText <" + tid + "/lang/" + lid +
-					"> was not found.");
+		long _start = System.nanoTime();
+		try {
+			ReentrantLock _lock = writeLocks.get(tid);
+			_lock.lock();
+			try {
+				readCompactTag(tid);
+				CompactId _lid = lid == null ? null : CompactId.of(lid);
+				CompactText _text = _lid == null ? null : textIndex.get(_lid);
+				if (_text == null) {
+					throw new NotFoundException("LocalizedText <" + tid + "/lang/" + lid +
+							"> was not found.");
+				}
+
+				// 1) remove the LocalizedText from its tag
+				CompactTag _tag = null;
+				CompactTag _updated = null;
+				do {
+					_tag = readCompactTag(tid);
+					_updated = _tag.withoutText(_lid);
+					if (_updated == null) {
+						throw new InternalServerErrorException("LocalizedText <" + tid + "/lang/" + lid
+								+ "> can not be removed, because it is an orphan.");
+					}
+				} while (!index.replace(_tag.getKey(), _tag, _updated));
+				// 2) remove the LocalizedText from the index
+				if (textIndex.remove(_lid) == null) {
+					throw new InternalServerErrorException("LocalizedText <" + tid + "/lang/" + lid
+							+ "> can not be removed, because it does not exist in the index.");
+				}
+				unindexText(_tag.getKey(), _text);
+
+				if (logger.isLoggable(Level.INFO)) {
+					logger.info("deleteText(" + tid + ", " + lid + ") -> OK");
+				}
+				persist(JournalRecord.deleteText(tid, lid));
+			} finally {
+				_lock.unlock();
+			}
+		} catch (RuntimeException _ex) {
+			metrics.failed(TagsMetrics.Operation.DELETE_TEXT, _ex);
+			throw _ex;
+		} finally {
+			metrics.called(TagsMetrics.Operation.DELETE_TEXT, _start);
 		}
-		
-		// 1) remove the LocalizedText from its MultiLangTag
-		if (_multiLangTag.removeText(_localizedText) == false) {
-			throw new InternalServerErrorException("LocalizedText <" + tid + "/lang/" + lid
-					+ "> can not be removed, because it is an orphan.");
+	}
+
+	/**
+	 * Log the result of a write: a summary at INFO, the full payload only at FINE.
+	 * Nothing is built or serialized if the level is disabled.
+	 * @param operation the name of the operation
+	 * @param tid the id of the tag that owns the object written, or null if a tag was written
+	 * @param id the id of the object written
+	 * @param payload the object written
+	 */
+	private static void logWrite(
+			String operation,
+			String tid,
+			String id,
+			Object payload) {
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine(operation + "(" + (tid == null ? id : tid + "/lang/" + id) + ") -> " 
+					+ PrettyPrinter.prettyPrintAsJSON(payload));
+		} else if (logger.isLoggable(Level.INFO)) {
+			logger.info(operation + "(" + (tid == null ? id : tid + "/lang/" + id) + ") -> OK");
 		}
-		// 2) remove the LocalizedText from the index
-		if (textIndex.remove(lid) == null) {
-			throw new InternalServerErrorException("LocalizedText <" + tid + "/lang/" + lid
-					+ "> can not be removed, because it does not exist in the index.");
+	}
+
+	/************************************** bulk import ************************************/
+	/**
+	 * Create or update a batch of tags with their localized texts in one pass.
+	 * All items are validated first. Valid items are then applied, and all mutations are written
+	 * to disk with a single write, so that the cost scales with the batch size instead of batch size times catalog size.
+	 * The tags of the batch are locked for the whole operation.
+	 * @param request the request, to determine the principal
+	 * @param items the tags and their localized texts; tags and texts without id are created, the others updated
+	 * @param allOrNothing if true, no item is applied if any item is invalid
+	 * @return one result per item, in the same order
+	 */
+	public List<TagImportResult> importTags(
+			HttpServletRequest request,
+			List<TagImportItem> items,
+			boolean allOrNothing) {
+		long _start = System.nanoTime();
+		try {
+			String _principal = ServiceUtil.getPrincipal(request);
+			Date _date = new Date();
+			// generate the ids of new tags first, so that all tags of the batch can be locked
+			List<String> _tids = new ArrayList<String>(items.size());
+			for (TagImportItem _item : items) {
+				_tids.add(isNewId(_item.getTag() == null ? null : _item.getTag().getId()) ?
+						UUID.randomUUID().toString() : _item.getTag().getId());
+			}
+			List<TagImportResult> _results = new ArrayList<TagImportResult>(items.size());
+			int _failed = 0;
+			List<ReentrantLock> _locks = writeLocks.lockAll(_tids);
+			try {
+				// 1) validate all items against the current state, and reserve their texts in unique languages
+				Set<String> _seen = new HashSet<String>();
+				List<List<LocalizedTextModel>> _reserved = new ArrayList<List<LocalizedTextModel>>(items.size());
+				for (int i = 0; i < items.size(); i++) {
+					TagImportResult _result = new TagImportResult(_tids.get(i));
+					_reserved.add(Collections.<LocalizedTextModel>emptyList());
+					try {
+						if (!_seen.add(_tids.get(i))) {
+							throw new ValidationException("tag <" + _tids.get(i) + "> occurs more than once in the batch.");
+						}
+						validateImportItem(_tids.get(i), items.get(i));
+						_reserved.set(i, reserveImportTexts(_tids.get(i), items.get(i)));
+					} catch (ValidationException | DuplicateException | NotFoundException _ex) {
+						_result.failed(_ex);
+						_failed++;
+					}
+					_results.add(_result);
+				}
+				// 2) apply the valid items
+				List<JournalRecord> _records = new ArrayList<JournalRecord>();
+				for (int i = 0; i < items.size(); i++) {
+					TagImportResult _result = _results.get(i);
+					if (_result.getStatus() == TagImportResult.Status.FAILED) {
+						continue;
+					}
+					if (allOrNothing && _failed > 0) {
+						_result.skipped();
+						releaseTexts(CompactId.of(_tids.get(i)), _reserved.get(i));
+					} else {
+						applyImportItem(_tids.get(i), items.get(i), _principal, _date, _result, _records);
+					}
+				}
+				// 3) write all mutations at once
+				persist(_records);
+			} finally {
+				StripedLock.unlockAll(_locks);
+			}
+			if (logger.isLoggable(Level.INFO)) {
+				logger.info("importTags(<" + items.size() + "> items, <" + allOrNothing + ">) -> " + 
+						(allOrNothing && _failed > 0 ? 0 : items.size() - _failed) + " applied, " + _failed + " failed.");
+			}
+			return _results;
+		} catch (RuntimeException _ex) {
+			metrics.failed(TagsMetrics.Operation.IMPORT_TAGS, _ex);
+			throw _ex;
+		} finally {
+			metrics.called(TagsMetrics.Operation.IMPORT_TAGS, _start);
 		}
-		
-			
-		logger.info("deleteText(" + tid + ", " + lid + ") -> OK");
-		if (isPersistent) {
-			exportJson(index.values());
-		}		
+	}
+
+	/**
+	 * @param id the id of a tag or localized text
+	 * @return true if the id is not set, i.e. the object is new
+	 */
+	private static boolean isNewId(
+			String id) {
+		return id == null || id.isEmpty();
+	}
+
+	/**
+	 * Validate an item of importTags() against the current state of the store.
+	 * @param tid the id of the tag; generated for new tags
+	 * @param item the item
+	 * @throws ValidationException, DuplicateException, NotFoundException if the item can not be applied
+	 */
+	private static void validateImportItem(
+			String tid,
+			TagImportItem item) 
+			throws ValidationException, DuplicateException, NotFoundException {
+		if (item.getTag() == null) {
+			throw new ValidationException("tag <" + tid + "> must contain a TagModel.");
+		}
+		boolean _isNew = isNewId(item.getTag().getId());
+		CompactTag _tag = index.get(CompactId.of(tid));
+		if (!_isNew && _tag == null) {	// a new ID was set on the client; we do not allow this
+			throw new ValidationException("tag <" + tid + 
+					"> contains an ID generated on the client. This is not allowed.");
+		}
+		EnumSet<LanguageCode> _languages = EnumSet.noneOf(LanguageCode.class);
+		if (item.getTexts() == null) {
+			return;
+		}
+		for (LocalizedTextModel _text : item.getTexts()) {
+			validateText(tid, _text.getId(), _text.getText());
+			if (_text.getLanguageCode() == null) {
+				throw new ValidationException("LocalizedText <" + tid + "/lang/" + _text.getId() + 
+						"> must contain a LanguageCode.");
+			}
+			if (!_languages.add(_text.getLanguageCode())) {
+				throw new DuplicateException("LocalizedText with LanguageCode <" + _text.getLanguageCode() + 
+						"> occurs more than once for tag <" + tid + ">.");
+			}
+			if (isNewId(_text.getId())) {
+				if (!_isNew && _tag.getText(_text.getLanguageCode()) != null) {
+					throw new DuplicateException("LocalizedText with LanguageCode <" + _text.getLanguageCode() + 
+							"> exists already in tag <" + tid + ">.");
+				}
+			} else {
+				CompactText _existing = _isNew ? null : _tag.getTextById(CompactId.of(_text.getId()));
+				if (_existing == null) {
+					throw new NotFoundException("LocalizedText <" + tid + "/lang/" + _text.getId() +
+							"> was not found.");
+				}
+				if (_existing.getLanguageCode() != _text.getLanguageCode()) {
+					throw new ValidationException("LocalizedText <" + tid + "/lang/" + _text.getId() + 
+							">: it is not allowed to change the LanguageCode.");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reserve the texts of an item of importTags() in the unique languages, so that no concurrent writer
+	 * of another tag can take them before the item is applied. The lock of the tag must be held.
+	 * @param tid the id of the tag
+	 * @param item the validated item
+	 * @return the texts that were reserved by this call; they must be released if the item is not applied
+	 * @throws DuplicateException if another tag has one of the texts; the texts reserved so far are released
+	 */
+	private static List<LocalizedTextModel> reserveImportTexts(
+			String tid,
+			TagImportItem item) 
+			throws DuplicateException {
+		CompactId _tid = CompactId.of(tid);
+		List<LocalizedTextModel> _reserved = new ArrayList<LocalizedTextModel>();
+		if (item.getTexts() == null) {
+			return _reserved;
+		}
+		try {
+			for (LocalizedTextModel _text : item.getTexts()) {
+				if (reverseIndex.isUnique(_text.getLanguageCode())
+						&& !reverseIndex.contains(_tid, _text.getLanguageCode(), _text.getText())) {
+					reserveText(_tid, _text.getLanguageCode(), _text.getText());
+					_reserved.add(_text);
+				}
+			}
+		} catch (DuplicateException _ex) {
+			releaseTexts(_tid, _reserved);
+			throw _ex;
+		}
+		return _reserved;
+	}
+
+	/**
+	 * Release texts reserved by reserveImportTexts().
+	 * @param tid the id of the tag
+	 * @param texts the reserved texts
+	 */
+	private static void releaseTexts(
+			CompactId tid,
+			List<LocalizedTextModel> texts) {
+		for (LocalizedTextModel _text : texts) {
+			reverseIndex.remove(tid, _text.getLanguageCode(), _text.getText());
+		}
+	}
+
+	/**
+	 * Apply a validated item of importTags(). The lock of the tag must be held.
+	 * @param tid the id of the tag; generated for new tags
+	 * @param item the item
+	 * @param principal the principal that is recorded in the audit fields
+	 * @param date the date that is recorded in the audit fields
+	 * @param result receives the stored tag and texts
+	 * @param records receives the journal records of the mutations
+	 */
+	private static void applyImportItem(
+			String tid,
+			TagImportItem item,
+			String principal,
+			Date date,
+			TagImportResult result,
+			List<JournalRecord> records) {
+		TagModel _tagModel = item.getTag();
+		CompactTag _tag = null;
+		if (isNewId(_tagModel.getId())) {
+			_tagModel.setId(tid);
+			_tagModel.setCreatedAt(date);
+			_tagModel.setCreatedBy(principal);
+			_tagModel.setModifiedAt(date);
+			_tagModel.setModifiedBy(principal);
+			_tag = CompactTag.of(_tagModel);
+		} else {
+			_tag = index.get(CompactId.of(tid)).withModified(date.getTime(), principal);
+			_tagModel = _tag.toModel();
+		}
+		records.add(JournalRecord.putTag(_tagModel));
+		List<LocalizedTextModel> _stored = new ArrayList<LocalizedTextModel>();
+		List<CompactText> _texts = new ArrayList<CompactText>();
+		List<CompactText> _replaced = new ArrayList<CompactText>();
+		if (item.getTexts() != null) {
+			for (LocalizedTextModel _text : item.getTexts()) {
+				LocalizedTextModel _localizedText = null;
+				CompactText _compact = null;
+				if (isNewId(_text.getId())) {
+					_localizedText = _text;
+					_localizedText.setId(UUID.randomUUID().toString());
+					_localizedText.setCreatedAt(date);
+					_localizedText.setCreatedBy(principal);
+					_localizedText.setModifiedAt(date);
+					_localizedText.setModifiedBy(principal);
+					_compact = CompactText.of(_localizedText);
+					_tag = _tag.withText(_compact);
+				} else {
+					CompactText _old = _tag.getTextById(CompactId.of(_text.getId()));
+					_compact = _old.withText(_text.getText(), date.getTime(), principal);
+					_localizedText = _compact.toModel();
+					_tag = _tag.withReplacedText(_compact);
+					if (!ReverseTextIndex.sameKey(_old.getText(), _compact.getText())) {
+						_replaced.add(_old);
+					}
+				}
+				_stored.add(_localizedText);
+				_texts.add(_compact);
+			}
+		}
+		index.put(_tag.getKey(), _tag);
+		for (int i = 0; i < _texts.size(); i++) {
+			textIndex.put(_texts.get(i).getKey(), _texts.get(i));
+			indexText(_tag.getKey(), _texts.get(i));
+			records.add(JournalRecord.putText(tid, _stored.get(i)));
+		}
+		for (CompactText _old : _replaced) {
+			reverseIndex.remove(_tag.getKey(), _old.getLanguageCode(), _old.getText());
+		}
+		result.applied(_tagModel, _stored);
+	}
+
+	/**
+	 * Validate the text of a LocalizedText.
+	 * @param tid the id of the tag
+	 * @param lid the id of the localized text; may be null for new texts
+	 * @param text the text
+	 * @throws ValidationException if the text is empty or consists of more than one word
+	 */
+	private static void validateText(
+			String tid,
+			String lid,
+			String text) 
+			throws ValidationException {
+		if (text == null || text.isEmpty()) {
+			throw new ValidationException("LocalizedText <" + tid + "/lang/" + lid + 
+					"> must contain a valid text.");
+		}
+		// enforce that the title is a single word
+		StringTokenizer _tokenizer = new StringTokenizer(text);
+		if (_tokenizer.countTokens() != 1) {
+			throw new ValidationException("LocalizedText <" + tid + "/lang/" + lid + 
+					"> must consist of exactly one word <" + text + "> (is " + _tokenizer.countTokens() + ").");
+		}
+	}
+
+	/**
+	 * Reserve a text for a tag in the reverse index, before the tag is changed.
+	 * @param tid the id of the tag
+	 * @param languageCode the language of the text
+	 * @param text the text
+	 * @throws DuplicateException if the language is unique and another tag has the same text
+	 */
+	private static void reserveText(
+			CompactId tid,
+			LanguageCode languageCode,
+			String text) 
+			throws DuplicateException {
+		CompactId _owner = reverseIndex.add(tid, languageCode, text, true);
+		if (_owner != null) {
+			throw new DuplicateException("LocalizedText <" + text + "> with LanguageCode <" + languageCode + 
+					"> exists already in tag <" + _owner + ">.");
+		}
+	}
+
+	/**
+	 * Add a localized text to the sorted, search and reverse indexes, or update it there.
+	 * In the reverse index, texts in unique languages must have been reserved with reserveText() before.
+	 * @param tid the id of the tag that owns the text
+	 * @param text the localized text
+	 */
+	private static void indexText(
+			CompactId tid,
+			CompactText text) {
+		sortedIndex.put(tid, text);
+		prefixIndex.put(tid, text);
+		reverseIndex.add(tid, text.getLanguageCode(), text.getText(), false);
+	}
+
+	/**
+	 * Remove a localized text from the sorted, search and reverse indexes.
+	 * @param tid the id of the tag that owns the text
+	 * @param text the localized text
+	 */
+	private static void unindexText(
+			CompactId tid,
+			CompactText text) {
+		sortedIndex.remove(text.getKey());
+		prefixIndex.remove(text.getKey());
+		reverseIndex.remove(tid, text.getLanguageCode(), text.getText());
 	}
 
 	public static TagModel getTagsModel(String tagId) {
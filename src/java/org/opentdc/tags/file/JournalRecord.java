@@ -0,0 +1,102 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import org.opentdc.service.LocalizedTextModel;
+import org.opentdc.tags.TagModel;
+
+/**
+ * A single mutation of the tags store as it is appended to the journal.
+ * Records carry the complete state of the affected object, so that replaying them is idempotent.
+ * @author Bruno Kaiser
+ *
+ */
+class JournalRecord {
+	enum Operation {
+		PUT_TAG,
+		DELETE_TAG,
+		PUT_TEXT,
+		DELETE_TEXT
+	}
+
+	Operation op;
+	String tid;
+	String lid;
+	TagModel tag;
+	LocalizedTextModel text;
+
+	/**
+	 * Constructor used by the JSON deserializer.
+	 */
+	JournalRecord() {
+	}
+
+	private JournalRecord(
+		Operation op,
+		String tid,
+		String lid,
+		TagModel tag,
+		LocalizedTextModel text
+	) {
+		this.op = op;
+		this.tid = tid;
+		this.lid = lid;
+		this.tag = tag;
+		this.text = text;
+	}
+
+	/**
+	 * @param tag the created or updated tag
+	 * @return a record that stores the tag
+	 */
+	static JournalRecord putTag(TagModel tag) {
+		return new JournalRecord(Operation.PUT_TAG, tag.getId(), null, tag, null);
+	}
+
+	/**
+	 * @param tid the id of the deleted tag
+	 * @return a record that removes the tag and all its localized texts
+	 */
+	static JournalRecord deleteTag(String tid) {
+		return new JournalRecord(Operation.DELETE_TAG, tid, null, null, null);
+	}
+
+	/**
+	 * @param tid the id of the tag that owns the text
+	 * @param text the created or updated localized text
+	 * @return a record that stores the localized text
+	 */
+	static JournalRecord putText(String tid, LocalizedTextModel text) {
+		return new JournalRecord(Operation.PUT_TEXT, tid, text.getId(), null, text);
+	}
+
+	/**
+	 * @param tid the id of the tag that owned the text
+	 * @param lid the id of the deleted localized text
+	 * @return a record that removes the localized text
+	 */
+	static JournalRecord deleteText(String tid, String lid) {
+		return new JournalRecord(Operation.DELETE_TEXT, tid, lid, null, null);
+	}
+}
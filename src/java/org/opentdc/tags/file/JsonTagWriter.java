@@ -0,0 +1,110 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes tags in the format of the data file: a JSON array of MultiLangTags.
+ * The tags are written to a temporary file next to the target and renamed atomically over the target,
+ * so that a crash of the process or a full disk never leaves a torn file behind, and a reader of the
+ * file sees either the previous or the new content. Forcing the file to disk before the rename also
+ * protects it against a crash of the machine; this costs a disk flush per write, so callers only ask
+ * for it where they need durability.
+ * @author Bruno Kaiser
+ *
+ */
+class JsonTagWriter {
+	private static final Gson gson = new Gson();
+
+	private JsonTagWriter() {
+	}
+
+	/**
+	 * Write tags to a file atomically.
+	 * @param tags the tags; materialized one by one
+	 * @param file the target file; replaced only if all tags were written
+	 * @param force true if the file must be forced to disk before it replaces the target
+	 * @return the size of the file
+	 * @throws IOException if the file could not be written; the previous content is kept in this case
+	 */
+	static long write(
+		Iterable<CompactTag> tags,
+		File file,
+		boolean force
+	) throws IOException {
+		File _tmpF = new File(file.getPath() + ".tmp");
+		FileOutputStream _out = new FileOutputStream(_tmpF);
+		try {
+			JsonWriter _writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(_out, "UTF-8"), 64 * 1024));
+			_writer.beginArray();
+			for (CompactTag _tag : tags) {
+				gson.toJson(_tag.toMultiLangTag(), MultiLangTag.class, _writer);
+			}
+			_writer.endArray();
+			_writer.flush();
+			if (force) {
+				_out.getFD().sync();
+			}
+		} catch (IOException _ex) {
+			_out.close();
+			_tmpF.delete();
+			throw _ex;
+		} finally {
+			_out.close();
+		}
+		Files.move(_tmpF.toPath(), file.toPath(), 
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return file.length();
+	}
+
+	/**
+	 * Force a file that was written without force to disk, e.g. at shutdown.
+	 * @param file the file; nothing happens if it does not exist
+	 * @throws IOException if the file could not be forced
+	 */
+	static void force(
+		File file
+	) throws IOException {
+		if (!file.isFile()) {
+			return;
+		}
+		RandomAccessFile _raf = new RandomAccessFile(file, "rw");
+		try {
+			_raf.getChannel().force(true);
+		} finally {
+			_raf.close();
+		}
+	}
+}
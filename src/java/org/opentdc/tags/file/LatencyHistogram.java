@@ -0,0 +1,135 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with logarithmic buckets, in the spirit of HdrHistogram.
+ * Each power of two is split into 16 linear sub-buckets, so percentiles are accurate to about 6%
+ * over the whole range from 1ns to about 18 minutes, with a fixed footprint of about 5KB.
+ * @author Bruno Kaiser
+ *
+ */
+class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private final AtomicLongArray buckets = new AtomicLongArray(buckets(MAX_EXPONENT));
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a value.
+	 * @param nanos the latency in nanoseconds
+	 */
+	void record(long nanos) {
+		long _value = Math.max(1, nanos);
+		buckets.incrementAndGet(bucketOf(_value));
+		count.incrementAndGet();
+		sum.addAndGet(_value);
+		long _max;
+		while (_value > (_max = max.get()) && !max.compareAndSet(_max, _value)) {
+			// retry
+		}
+	}
+
+	private static int bucketOf(long value) {
+		int _exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (_exponent < SUB_BUCKET_BITS) {
+			return (int) value;		// small values have their own bucket
+		}
+		if (_exponent > MAX_EXPONENT) {
+			return buckets(MAX_EXPONENT) - 1;
+		}
+		int _sub = (int) (value >>> (_exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (_exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + _sub;
+	}
+
+	private static int buckets(int exponent) {
+		return (exponent - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+	}
+
+	/**
+	 * @param bucket the index of a bucket
+	 * @return the highest value that falls into the bucket
+	 */
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int _exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long _sub = bucket % SUB_BUCKETS;
+		long _width = 1L << (_exponent - SUB_BUCKET_BITS);
+		return (1L << _exponent) + (_sub + 1) * _width - 1;
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the mean of the recorded values in nanoseconds, or 0 if there are none
+	 */
+	long getMean() {
+		long _count = count.get();
+		return _count == 0 ? 0 : sum.get() / _count;
+	}
+
+	/**
+	 * @return the largest recorded value in nanoseconds
+	 */
+	long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Estimate a percentile. Concurrent recording may make the result slightly inconsistent.
+	 * @param percentile between 0 and 100
+	 * @return the upper bound of the bucket that contains the percentile, in nanoseconds
+	 */
+	long getPercentile(double percentile) {
+		long _total = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			_total += buckets.get(i);
+		}
+		if (_total == 0) {
+			return 0;
+		}
+		long _rank = (long) Math.ceil(percentile / 100.0 * _total);
+		long _seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			_seen += buckets.get(i);
+			if (_seen >= Math.max(1, _rank)) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+}
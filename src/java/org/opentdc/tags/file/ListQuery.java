@@ -0,0 +1,86 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+/**
+ * The query of list() or listTexts(), split into its terms.
+ * Terms are separated by '&amp;'. The terms cursor=... and (with queryType prefix) prefix=...
+ * are handled by this service provider; all other terms are passed on to select the language.
+ * @author Bruno Kaiser
+ *
+ */
+class ListQuery {
+	private static final String PREFIX_TERM = "prefix=";
+	private static final String CURSOR_TERM = "cursor=";
+	private final String languageQuery;
+	private final String prefix;
+	private final String cursor;
+
+	/**
+	 * Constructor.
+	 * @param query the query as passed to list() or listTexts(); may be null
+	 * @param queryType the type of the query; may be null
+	 */
+	ListQuery(String query, String queryType) {
+		String _prefix = null;
+		String _cursor = null;
+		StringBuilder _rest = new StringBuilder();
+		if (query != null) {
+			boolean _isPrefixQuery = FileServiceProvider.QUERY_TYPE_PREFIX.equalsIgnoreCase(queryType);
+			for (String _term : query.split("&")) {
+				if (_isPrefixQuery && _term.startsWith(PREFIX_TERM)) {
+					_prefix = _term.substring(PREFIX_TERM.length());
+				} else if (_term.startsWith(CURSOR_TERM)) {
+					_cursor = _term.substring(CURSOR_TERM.length());
+				} else if (!_term.isEmpty()) {
+					_rest.append(_rest.length() == 0 ? "" : "&").append(_term);
+				}
+			}
+		}
+		this.languageQuery = _rest.length() == 0 ? null : _rest.toString();
+		this.prefix = _prefix == null || _prefix.isEmpty() ? null : _prefix;
+		this.cursor = _cursor == null || _cursor.isEmpty() ? null : _cursor;
+	}
+
+	/**
+	 * @return the terms that select the language, or null if there are none
+	 */
+	String getLanguageQuery() {
+		return languageQuery;
+	}
+
+	/**
+	 * @return the prefix of the texts to select, or null
+	 */
+	String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * @return the cursor after which the page starts, or null
+	 */
+	String getCursor() {
+		return cursor;
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opentdc.util.LanguageCode;
+
+/**
+ * A bounded cache of list() results.
+ * Each result is stamped with the version of the store it was computed from. Writers only increase
+ * the version, so invalidation is O(1) and never walks the cache; a result of an older version is
+ * treated as a miss and replaced.
+ * Lookups do not lock: the results live in a ConcurrentHashMap and each one carries the tick of its last
+ * access. Once the cache grows beyond its bound, one thread at a time evicts the stale results and then
+ * the least recently used ones, so the bound and the LRU order are approximate.
+ * The cached pages are immutable lists of immutable index entries; every caller gets its own
+ * SingleLangTags from SortedTagIndex.toTags().
+ * @author Bruno Kaiser
+ *
+ */
+class ListResultCache {
+	private final int maxEntries;
+	private final ConcurrentHashMap<Key, Result> results;
+	private final AtomicLong ticks = new AtomicLong();
+	private final AtomicBoolean evicting = new AtomicBoolean();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * The normalized parameters of a list() call.
+	 */
+	static final class Key {
+		private final LanguageCode lc;
+		private final String prefix;
+		private final String cursor;
+		private final int position;
+		private final int size;
+
+		/**
+		 * Constructor.
+		 * @param lc the language, or null for all languages
+		 * @param prefix the prefix of a prefix search, or null
+		 * @param cursor the encoded cursor, or null
+		 * @param position the position; ignored if there is a cursor
+		 * @param size the page size
+		 */
+		Key(
+			LanguageCode lc,
+			String prefix,
+			String cursor,
+			int position,
+			int size
+		) {
+			this.lc = lc;
+			this.prefix = prefix;
+			this.cursor = cursor;
+			this.position = cursor == null ? position : 0;
+			this.size = size;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key _other = (Key) obj;
+			return lc == _other.lc && position == _other.position && size == _other.size
+					&& (prefix == null ? _other.prefix == null : prefix.equals(_other.prefix))
+					&& (cursor == null ? _other.cursor == null : cursor.equals(_other.cursor));
+		}
+
+		@Override
+		public int hashCode() {
+			int _hash = lc == null ? -1 : lc.ordinal();
+			_hash = 31 * _hash + (prefix == null ? 0 : prefix.hashCode());
+			_hash = 31 * _hash + (cursor == null ? 0 : cursor.hashCode());
+			_hash = 31 * _hash + position;
+			return 31 * _hash + size;
+		}
+	}
+
+	private static final class Result {
+		final long version;
+		final List<SortedTagIndex.Entry> entries;
+		volatile long lastAccess;
+
+		Result(long version, List<SortedTagIndex.Entry> entries, long lastAccess) {
+			this.version = version;
+			this.entries = entries;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	/**
+	 * A result with the tick of its last access as it was when the eviction started.
+	 */
+	private static final class Candidate {
+		final Key key;
+		final Result result;
+		final long lastAccess;
+
+		Candidate(Key key, Result result) {
+			this.key = key;
+			this.result = result;
+			this.lastAccess = result.lastAccess;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param maxEntries the maximal number of cached results
+	 */
+	ListResultCache(
+		final int maxEntries
+	) {
+		this.maxEntries = maxEntries;
+		this.results = new ConcurrentHashMap<Key, Result>(Math.min(maxEntries, 1024) * 4 / 3 + 1);
+	}
+
+	/**
+	 * Look up a result.
+	 * @param key the parameters of the call
+	 * @param version the current version of the store
+	 * @return the cached entries (immutable), or null if there is none for this version
+	 */
+	List<SortedTagIndex.Entry> get(
+			Key key,
+			long version) {
+		Result _result = results.get(key);
+		if (_result == null || _result.version != version) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		_result.lastAccess = ticks.incrementAndGet();
+		return _result.entries;
+	}
+
+	/**
+	 * Store a result.
+	 * @param key the parameters of the call
+	 * @param version the version of the store that was read before the result was computed
+	 * @param entries the result; must be immutable
+	 */
+	void put(
+			Key key,
+			long version,
+			List<SortedTagIndex.Entry> entries) {
+		Result _result = new Result(version, entries, ticks.incrementAndGet());
+		Result _current = results.putIfAbsent(key, _result);
+		// never replace a result of a newer version by a slow reader's older one
+		while (_current != null && _current.version < version && !results.replace(key, _current, _result)) {
+			_current = results.putIfAbsent(key, _result);
+		}
+		if (results.size() > maxEntries) {
+			evict(version);
+		}
+	}
+
+	/**
+	 * Shrink the cache to three quarters of its bound: first drop the results of older versions,
+	 * then the least recently used ones. Only one thread evicts at a time; the others do not wait.
+	 * @param version the current version of the store
+	 */
+	private void evict(
+			long version) {
+		if (!evicting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			int _target = maxEntries - maxEntries / 4;
+			for (Map.Entry<Key, Result> _entry : results.entrySet()) {
+				if (_entry.getValue().version < version) {
+					results.remove(_entry.getKey(), _entry.getValue());
+				}
+			}
+			int _excess = results.size() - _target;
+			if (_excess <= 0) {
+				return;
+			}
+			// get() keeps changing lastAccess; sort on a copy taken once, so that the order is consistent
+			List<Candidate> _candidates = new ArrayList<Candidate>(results.size());
+			for (Map.Entry<Key, Result> _entry : results.entrySet()) {
+				_candidates.add(new Candidate(_entry.getKey(), _entry.getValue()));
+			}
+			Collections.sort(_candidates, new Comparator<Candidate>() {
+				@Override
+				public int compare(Candidate c1, Candidate c2) {
+					return Long.compare(c1.lastAccess, c2.lastAccess);
+				}
+			});
+			for (int i = 0; i < _excess && i < _candidates.size(); i++) {
+				results.remove(_candidates.get(i).key, _candidates.get(i).result);
+			}
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	/**
+	 * @return the maximal number of cached results
+	 */
+	int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @return the number of cached results, including stale ones that were not yet replaced or evicted
+	 */
+	int size() {
+		return results.size();
+	}
+
+	/**
+	 * @return the number of lookups that returned a result
+	 */
+	long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that returned no result
+	 */
+	long getMisses() {
+		return misses.get();
+	}
+}
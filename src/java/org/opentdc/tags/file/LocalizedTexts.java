@@ -0,0 +1,111 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opentdc.util.LanguageCode;
+
+/**
+ * The outcome of FileServiceProvider.getLocalizedTexts(): the texts of a batch of tags in one language.
+ * Ids that can not be resolved are reported instead of raising an exception.
+ * @author Bruno Kaiser
+ *
+ */
+public class LocalizedTexts {
+	private final Map<String, String> texts;
+	private final Map<String, LanguageCode> languages;
+	private final List<String> missingIds = new ArrayList<String>();
+	private final List<String> untranslatedIds = new ArrayList<String>();
+
+	/**
+	 * Constructor.
+	 * @param size the expected number of ids
+	 */
+	LocalizedTexts(int size) {
+		int _capacity = Math.max(16, (int) (size / 0.75f) + 1);
+		texts = new LinkedHashMap<String, String>(_capacity);
+		languages = new LinkedHashMap<String, LanguageCode>(_capacity);
+	}
+
+	void resolved(String id, String text, LanguageCode lang) {
+		texts.put(id, text);
+		languages.put(id, lang);
+	}
+
+	void missing(String id) {
+		missingIds.add(id);
+	}
+
+	void untranslated(String id) {
+		untranslatedIds.add(id);
+	}
+
+	/**
+	 * @return the text of each resolved tag by tag id, in the order of the requested ids
+	 */
+	public Map<String, String> getTexts() {
+		return Collections.unmodifiableMap(texts);
+	}
+
+	/**
+	 * @param id the id of a tag
+	 * @return the text of the tag, or null if it was not resolved
+	 */
+	public String getText(String id) {
+		return texts.get(id);
+	}
+
+	/**
+	 * @return the language each text was found in by tag id; differs from the requested language if a fallback was used
+	 */
+	public Map<String, LanguageCode> getLanguages() {
+		return Collections.unmodifiableMap(languages);
+	}
+
+	/**
+	 * @return the requested ids without a tag
+	 */
+	public List<String> getMissingIds() {
+		return Collections.unmodifiableList(missingIds);
+	}
+
+	/**
+	 * @return the ids of the tags without a text in the requested language and in all fallback languages
+	 */
+	public List<String> getUntranslatedIds() {
+		return Collections.unmodifiableList(untranslatedIds);
+	}
+
+	/**
+	 * @return true if a text was found for every requested id
+	 */
+	public boolean isComplete() {
+		return missingIds.isEmpty() && untranslatedIds.isEmpty();
+	}
+}
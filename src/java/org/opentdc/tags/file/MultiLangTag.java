@@ -24,6 +24,8 @@
 package org.opentdc.tags.file;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 
 import org.opentdc.service.LocalizedTextModel;
@@ -31,18 +33,48 @@ import org.opentdc.tags.TagModel;
 import org.opentdc.util.LanguageCode;
 
 /**
+ * An immutable tag with at most one localized text per LanguageCode.
+ * This is the form of the data file and of the API; the FileServiceProvider holds the tags as
+ * CompactTags and materializes MultiLangTags from them on demand.
+ * New versions are derived with the with... methods; a MultiLangTag is never changed.
+ * The texts are looked up by LanguageCode in an EnumMap; the list of texts is kept
+ * in insertion order because it is the form that is persisted.
  * @author Bruno Kaiser
  *
  */
 public class MultiLangTag {
+	// not final, because they are set by the JSON deserializer
 	private TagModel model;
-	ArrayList<LocalizedTextModel> localizedTexts;
+	private List<LocalizedTextModel> localizedTexts;
+	// derived from localizedTexts; not persisted and rebuilt lazily after deserialization
+	private transient volatile EnumMap<LanguageCode, LocalizedTextModel> slots;
 	
 	/**
-	 * Constructor.
+	 * Constructor used by the JSON deserializer.
 	 */
 	public MultiLangTag() {
-		localizedTexts = new ArrayList<LocalizedTextModel>();
+		localizedTexts = Collections.emptyList();
+	}
+	
+	/**
+	 * Constructor.
+	 * @param model the TagModel
+	 */
+	public MultiLangTag(TagModel model) {
+		this(model, Collections.<LocalizedTextModel>emptyList());
+	}
+	
+	/**
+	 * Constructor.
+	 * @param model the TagModel
+	 * @param localizedTexts the localized texts; the list must not be modified afterwards
+	 */
+	MultiLangTag(
+		TagModel model, 
+		List<LocalizedTextModel> localizedTexts
+	) {
+		this.model = model;
+		this.localizedTexts = localizedTexts;
 	}
 	
 	/**
@@ -54,44 +86,105 @@ public class MultiLangTag {
 	}
 	
 	/**
-	 * Set the TagsModel.
+	 * Derive a MultiLangTag with another TagModel.
 	 * @param model
+	 * @return the new MultiLangTag with the same localized texts
 	 */
-	public void setModel(TagModel model) {
-		this.model = model;
+	public MultiLangTag withModel(TagModel model) {
+		return new MultiLangTag(model, localizedTexts);
 	}
 	
 	/**
 	 * Retrieve a list of all localized texts.
-	 * @return the list of localized texts
+	 * @return a read-only view of the localized texts
 	 */
 	public List<LocalizedTextModel> getLocalizedTexts() {
-		return localizedTexts;
+		return Collections.unmodifiableList(localizedTexts);
 	}
 	
 	/**
-	 * Set a list of localized texts.
-	 * @param localizedTexts
+	 * Retrieve the texts by LanguageCode, building the map if necessary.
+	 * If the list contains several texts with the same LanguageCode, only the first one can be looked up by language.
+	 * @return the map of texts by LanguageCode; must not be modified
 	 */
-	public void setLocalizedTexts(ArrayList<LocalizedTextModel> localizedTexts) {
-		this.localizedTexts = localizedTexts;
+	private EnumMap<LanguageCode, LocalizedTextModel> getSlots() {
+		EnumMap<LanguageCode, LocalizedTextModel> _slots = slots;
+		if (_slots == null) {
+			_slots = new EnumMap<LanguageCode, LocalizedTextModel>(LanguageCode.class);
+			for (LocalizedTextModel _localizedText : localizedTexts) {
+				if (_localizedText.getLanguageCode() != null 
+						&& !_slots.containsKey(_localizedText.getLanguageCode())) {
+					_slots.put(_localizedText.getLanguageCode(), _localizedText);
+				}
+			}
+			slots = _slots;
+		}
+		return _slots;
 	}
 	
 	/**
-	 * Add a localized text to a tag.
+	 * Derive a MultiLangTag with an additional localized text.
 	 * @param text
+	 * @return the new MultiLangTag, or null if this tag already contains a text with the same LanguageCode
 	 */
-	public void addText(LocalizedTextModel text) {
-		this.localizedTexts.add(text);
+	public MultiLangTag withText(LocalizedTextModel text) {
+		if (getSlots().containsKey(text.getLanguageCode())) {
+			return null;
+		}
+		ArrayList<LocalizedTextModel> _texts = new ArrayList<LocalizedTextModel>(localizedTexts.size() + 1);
+		_texts.addAll(localizedTexts);
+		_texts.add(text);
+		return new MultiLangTag(model, _texts);
 	}
 	
 	/**
-	 * Remove a localized text from a tag.
-	 * @param text the localized text
-	 * @return true if the removal was successful
+	 * Derive a MultiLangTag where the localized text with the same id is replaced.
+	 * @param text the new version of the localized text
+	 * @return the new MultiLangTag, or null if this tag does not contain a text with this id and LanguageCode
 	 */
-	public boolean removeText(LocalizedTextModel text) {
-		return this.localizedTexts.remove(text);
+	public MultiLangTag withReplacedText(LocalizedTextModel text) {
+		ArrayList<LocalizedTextModel> _texts = new ArrayList<LocalizedTextModel>(localizedTexts);
+		for (int i = 0; i < _texts.size(); i++) {
+			LocalizedTextModel _old = _texts.get(i);
+			if (_old.getId().equals(text.getId())) {
+				if (_old.getLanguageCode() != text.getLanguageCode()) {
+					return null;
+				}
+				_texts.set(i, text);
+				return new MultiLangTag(model, _texts);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Derive a MultiLangTag without a localized text.
+	 * @param textId the id of the localized text
+	 * @return the new MultiLangTag, or null if this tag does not contain a text with this id
+	 */
+	public MultiLangTag withoutText(String textId) {
+		ArrayList<LocalizedTextModel> _texts = new ArrayList<LocalizedTextModel>(localizedTexts);
+		for (int i = 0; i < _texts.size(); i++) {
+			if (_texts.get(i).getId().equals(textId)) {
+				_texts.remove(i);
+				return new MultiLangTag(model, _texts);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Retrieve a localized text by its id.
+	 * @param textId the id of the localized text
+	 * @return the localized text or null if this tag does not contain a text with this id
+	 */
+	public LocalizedTextModel getLocalizedTextById(String textId) {
+		for (LocalizedTextModel _localizedText : localizedTexts) {
+			if (_localizedText.getId().equals(textId)) {
+				return _localizedText;
+			}
+		}
+		return null;
 	}
 	
 	/**
@@ -100,12 +193,7 @@ public class MultiLangTag {
 	 * @return true if the LanguageCode is contained, false if otherwise
 	 */
 	public boolean containsLocalizedText(LanguageCode languageCode) {
-		for (LocalizedTextModel _localizedText : localizedTexts) {
-			if (_localizedText.getLanguageCode() == languageCode) {
-				return true;
-			}
-		}
-		return false;
+		return languageCode != null && getSlots().containsKey(languageCode);
 	}
 	
 	/**
@@ -114,11 +202,6 @@ public class MultiLangTag {
 	 * @return the LocalizedTextModel with the LanguageCode found or null if no such LocalizedText exists.
 	 */
 	public LocalizedTextModel getLocalizedText(LanguageCode languageCode) {
-		for (LocalizedTextModel _localizedText : localizedTexts) {
-			if (_localizedText.getLanguageCode() == languageCode) {
-				return _localizedText;
-			}
-		}
-		return null;		
+		return languageCode == null ? null : getSlots().get(languageCode);
 	}
 }
@@ -0,0 +1,299 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opentdc.service.exception.InternalServerErrorException;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+/**
+ * Append-only log of mutations of the tags store.
+ * Each mutation is written as one JSON line. Once the log grows beyond a size threshold,
+ * it is rotated and folded into a fresh snapshot by a background compactor.
+ * A torn last record (e.g. after a crash) is truncated when the journal is replayed.
+ * @author Bruno Kaiser
+ *
+ */
+class MutationJournal {
+	private static final Logger logger = Logger.getLogger(MutationJournal.class.getName());
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Gson gson = new GsonBuilder()
+		.registerTypeAdapter(Date.class, new EpochMillisAdapter())
+		.create();
+
+	/**
+	 * Applies the records of the journal during replay.
+	 */
+	interface RecordHandler {
+		void apply(JournalRecord record);
+	}
+
+	private final File journalF;
+	private final File rotatedF;
+	private final long maxBytes;
+	private final Runnable snapshotWriter;
+	private final AtomicBoolean compacting = new AtomicBoolean();
+	private final ExecutorService compactor;
+	private FileOutputStream out = null;
+	private long size = 0;
+
+	/**
+	 * Constructor.
+	 * @param journalF the journal file
+	 * @param maxBytes the size of the journal that triggers a compaction
+	 * @param snapshotWriter writes the complete store as a snapshot and makes it durable, or throws
+	 */
+	MutationJournal(
+		File journalF,
+		long maxBytes,
+		Runnable snapshotWriter
+	) {
+		this.journalF = journalF;
+		this.rotatedF = new File(journalF.getPath() + ".old");
+		this.maxBytes = maxBytes;
+		this.snapshotWriter = snapshotWriter;
+		this.compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread _t = new Thread(r, "tags-journal-compactor");
+				_t.setDaemon(true);
+				return _t;
+			}
+		});
+	}
+
+	/**
+	 * Replay the rotated and the current journal, in this order.
+	 * @param handler applies each record to the store
+	 * @return the number of records replayed
+	 * @throws IOException if a record other than the last one is corrupt
+	 */
+	synchronized int replay(RecordHandler handler) throws IOException {
+		int _count = replay(rotatedF, handler);
+		_count += replay(journalF, handler);
+		logger.info("replayed " + _count + " journal records.");
+		return _count;
+	}
+
+	private int replay(File file, RecordHandler handler) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+		int _count = 0;
+		long _offset = 0;	// offset of the first byte after the last complete record
+		InputStream _in = new BufferedInputStream(new FileInputStream(file));
+		ByteArrayOutputStream _line = new ByteArrayOutputStream(256);
+		try {
+			int _b;
+			while ((_b = _in.read()) != -1) {
+				if (_b != '\n') {
+					_line.write(_b);
+					continue;
+				}
+				String _json = new String(_line.toByteArray(), UTF8);
+				JournalRecord _record = null;
+				try {
+					_record = gson.fromJson(_json, JournalRecord.class);
+				} catch (JsonParseException _ex) {
+					throw new IOException("journal <" + file.getPath() + 
+							"> is corrupt at offset " + _offset, _ex);
+				}
+				if (_record != null && _record.op != null) {
+					handler.apply(_record);
+					_count++;
+				}
+				_offset += _line.size() + 1;
+				_line.reset();
+			}
+		} finally {
+			_in.close();
+		}
+		if (_line.size() > 0) {
+			logger.warning("journal <" + file.getPath() + ">: truncating torn last record of " +
+					_line.size() + " bytes at offset " + _offset + ".");
+			RandomAccessFile _raf = new RandomAccessFile(file, "rw");
+			try {
+				_raf.setLength(_offset);
+			} finally {
+				_raf.close();
+			}
+		}
+		return _count;
+	}
+
+	/**
+	 * Append records to the journal with a single write. Triggers a compaction once the size threshold is passed.
+	 * @param records the mutations
+	 * @throws InternalServerErrorException if the records could not be written
+	 */
+	void append(List<JournalRecord> records) {
+		StringBuilder _lines = new StringBuilder(256 * records.size());
+		for (JournalRecord _record : records) {
+			_lines.append(gson.toJson(_record)).append('\n');
+		}
+		byte[] _bytes = _lines.toString().getBytes(UTF8);
+		boolean _compact = false;
+		synchronized (this) {
+			try {
+				if (out == null) {
+					out = new FileOutputStream(journalF, true);
+					size = journalF.length();
+				}
+				out.write(_bytes);
+				size += _bytes.length;
+			} catch (IOException _ex) {
+				throw new InternalServerErrorException("could not append to journal <" + 
+						journalF.getPath() + ">: " + _ex.getMessage());
+			}
+			_compact = size >= maxBytes;
+		}
+		if (_compact && compacting.compareAndSet(false, true)) {
+			compactor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						compact();
+					} catch (RuntimeException _ex) {
+						logger.log(Level.SEVERE, "journal compaction failed; will retry", _ex);
+					} catch (IOException _ex) {
+						logger.log(Level.SEVERE, "journal compaction failed; will retry", _ex);
+					} finally {
+						compacting.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Fold the journal into a fresh snapshot.
+	 * The journal is rotated first, so that mutations during the snapshot go to a new journal.
+	 * The rotated journal is deleted only after the snapshot was forced to disk and renamed over the previous one;
+	 * if the snapshot can not be written, the previous snapshot and the rotated journal are kept and replayed.
+	 * @throws IOException if the journal could not be rotated
+	 */
+	void compact() throws IOException {
+		synchronized (this) {
+			if (!rotatedF.exists()) {		// otherwise, a previous compaction failed after rotating
+				close();
+				if (journalF.exists() && !journalF.renameTo(rotatedF)) {
+					throw new IOException("could not rotate journal <" + journalF.getPath() + ">");
+				}
+				size = 0;
+			}
+		}
+		long _start = System.currentTimeMillis();
+		snapshotWriter.run();
+		if (!rotatedF.delete() && rotatedF.exists()) {
+			throw new IOException("could not delete rotated journal <" + rotatedF.getPath() + ">");
+		}
+		logger.info("compact() -> snapshot written in " + (System.currentTimeMillis() - _start) + "ms.");
+	}
+
+	/**
+	 * Force all appended records to the storage device.
+	 */
+	synchronized void sync() {
+		if (out != null) {
+			try {
+				out.getChannel().force(false);
+			} catch (IOException _ex) {
+				throw new InternalServerErrorException("could not sync journal <" + 
+						journalF.getPath() + ">: " + _ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Close the journal file. It is reopened by the next append.
+	 */
+	synchronized void close() {
+		if (out != null) {
+			try {
+				out.getChannel().force(false);
+				out.close();
+			} catch (IOException _ex) {
+				logger.log(Level.WARNING, "could not close journal <" + journalF.getPath() + ">", _ex);
+			}
+			out = null;
+		}
+	}
+
+	/**
+	 * Stop the compactor and close the journal.
+	 */
+	void shutdown() {
+		compactor.shutdown();
+		try {
+			compactor.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException _ex) {
+			Thread.currentThread().interrupt();
+		}
+		close();
+	}
+
+	/**
+	 * Serializes dates as epoch milliseconds, so that replaying a record does not lose precision.
+	 */
+	private static class EpochMillisAdapter implements JsonSerializer<Date>, JsonDeserializer<Date> {
+		@Override
+		public JsonElement serialize(Date src, Type typeOfSrc, JsonSerializationContext context) {
+			return new JsonPrimitive(src.getTime());
+		}
+
+		@Override
+		public Date deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
+				throws JsonParseException {
+			return new Date(json.getAsLong());
+		}
+	}
+}
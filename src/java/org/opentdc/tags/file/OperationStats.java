@@ -0,0 +1,121 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.beans.ConstructorProperties;
+import java.util.Map;
+
+/**
+ * A snapshot of the statistics of one operation of the FileServiceProvider.
+ * @author Bruno Kaiser
+ *
+ */
+public class OperationStats {
+	private final String name;
+	private final long calls;
+	private final Map<String, Long> errors;
+	private final long samples;
+	private final long meanMicros;
+	private final long p50Micros;
+	private final long p99Micros;
+	private final long p999Micros;
+	private final long maxMicros;
+
+	/**
+	 * Constructor.
+	 * @param name the name of the operation
+	 * @param calls the number of calls
+	 * @param errors the number of failed calls by simple class name of the exception
+	 * @param samples the number of latencies recorded in the histogram
+	 * @param meanMicros the mean latency
+	 * @param p50Micros the median latency
+	 * @param p99Micros the 99th percentile of the latency
+	 * @param p999Micros the 99.9th percentile of the latency
+	 * @param maxMicros the largest latency
+	 */
+	@ConstructorProperties({ "name", "calls", "errors", "samples", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros" })
+	public OperationStats(
+		String name,
+		long calls,
+		Map<String, Long> errors,
+		long samples,
+		long meanMicros,
+		long p50Micros,
+		long p99Micros,
+		long p999Micros,
+		long maxMicros
+	) {
+		this.name = name;
+		this.calls = calls;
+		this.errors = errors;
+		this.samples = samples;
+		this.meanMicros = meanMicros;
+		this.p50Micros = p50Micros;
+		this.p99Micros = p99Micros;
+		this.p999Micros = p999Micros;
+		this.maxMicros = maxMicros;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCalls() {
+		return calls;
+	}
+
+	public Map<String, Long> getErrors() {
+		return errors;
+	}
+
+	public long getSamples() {
+		return samples;
+	}
+
+	public long getMeanMicros() {
+		return meanMicros;
+	}
+
+	public long getP50Micros() {
+		return p50Micros;
+	}
+
+	public long getP99Micros() {
+		return p99Micros;
+	}
+
+	public long getP999Micros() {
+		return p999Micros;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": calls=" + calls + ", errors=" + errors + ", samples=" + samples + ", mean=" + meanMicros + "us, p50=" + p50Micros +
+				"us, p99=" + p99Micros + "us, p999=" + p999Micros + "us, max=" + maxMicros + "us";
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.text.Normalizer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+import org.opentdc.util.LanguageCode;
+
+/**
+ * Sorted views of all localized texts by their normalized (case-folded, accent-stripped) text.
+ * A prefix lookup seeks to the first text with the prefix and iterates only over the matches,
+ * so a type-ahead query costs O(log n + size).
+ * @author Bruno Kaiser
+ *
+ */
+class PrefixSearchIndex extends SortedTagIndex {
+	private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+	/**
+	 * Normalize a text for prefix search: decompose, strip the accents and fold the case.
+	 * @param text the text; may be null
+	 * @return the normalized text
+	 */
+	static String normalize(String text) {
+		if (text == null) {
+			return "";
+		}
+		String _decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+		return DIACRITICS.matcher(_decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.opentdc.tags.file.SortedTagIndex#sortKey(java.lang.String)
+	 */
+	@Override
+	protected String sortKey(String text) {
+		return normalize(text);
+	}
+
+	/**
+	 * Retrieve a page of the tags whose text starts with a prefix.
+	 * @param languageCode the language of the texts, or null for all languages
+	 * @param prefix the prefix; it is normalized like the texts
+	 * @param cursor the last element of the previous page, or null to start with the first match
+	 * @param position the number of matches to skip
+	 * @param size the maximal number of elements to return
+	 * @return the matching entries on this page, ordered by normalized text; immutable, see toTags()
+	 */
+	List<Entry> prefixPage(
+			LanguageCode languageCode, 
+			String prefix, 
+			TagCursor cursor, 
+			int position, 
+			int size) {
+		final String _prefix = normalize(prefix);
+		Entry _from = new Entry(_prefix, CompactId.MIN, (LanguageCode) null);
+		boolean _inclusive = true;
+		if (cursor != null && cursorEntry(cursor).compareTo(_from) > 0) {
+			_from = cursorEntry(cursor);
+			_inclusive = false;
+		}
+		final Iterator<Entry> _tail = view(languageCode).tailSet(_from, _inclusive).iterator();
+		Iterator<Entry> _matches = new Iterator<Entry>() {
+			private Entry next = advance();
+
+			private Entry advance() {
+				if (_tail.hasNext()) {
+					Entry _entry = _tail.next();
+					if (_entry.sortKey.startsWith(_prefix)) {
+						return _entry;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Entry next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				Entry _entry = next;
+				next = advance();
+				return _entry;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		return page(_matches, position, size);
+	}
+}
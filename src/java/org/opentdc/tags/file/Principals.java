@@ -0,0 +1,61 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A pool of principal names, so that the audit fields of all tags and localized texts
+ * share one String per principal instead of one per object.
+ * The number of principals is small compared to the number of objects, so the pool is never purged.
+ * @author Bruno Kaiser
+ *
+ */
+final class Principals {
+	private static final ConcurrentMap<String, String> pool = new ConcurrentHashMap<String, String>();
+
+	private Principals() {
+	}
+
+	/**
+	 * Retrieve the pooled instance of a principal name.
+	 * @param principal the principal name; may be null
+	 * @return an equal String that is shared by all callers, or null
+	 */
+	static String intern(String principal) {
+		if (principal == null) {
+			return null;
+		}
+		String _pooled = pool.putIfAbsent(principal, principal);
+		return _pooled == null ? principal : _pooled;
+	}
+
+	/**
+	 * @return the number of distinct principal names
+	 */
+	static int size() {
+		return pool.size();
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opentdc.util.LanguageCode;
+
+/**
+ * Hash index from the normalized text of the localized texts to the ids of their tags, one per LanguageCode.
+ * Texts are normalized like for prefix search (PrefixSearchIndex.normalize()), so that a lookup ignores
+ * case and accents and costs O(1).
+ * Languages can be declared unique: then a text can only be added if no other tag has the same
+ * normalized text in this language. The check and the insert are one atomic step, so that two
+ * writers of different tags can not both succeed.
+ * @author Bruno Kaiser
+ *
+ */
+class ReverseTextIndex {
+	private static final CompactId[] NO_TAGS = new CompactId[0];
+	private final Map<LanguageCode, ConcurrentMap<String, CompactId[]>> byLanguage;
+	private final EnumSet<LanguageCode> uniqueLanguages;
+
+	/**
+	 * Constructor.
+	 * @param uniqueLanguages the languages in which a text may belong to one tag only
+	 */
+	ReverseTextIndex(
+		EnumSet<LanguageCode> uniqueLanguages
+	) {
+		this.uniqueLanguages = uniqueLanguages.clone();
+		// the map itself is never modified after construction
+		byLanguage = new EnumMap<LanguageCode, ConcurrentMap<String, CompactId[]>>(LanguageCode.class);
+		for (LanguageCode _lc : LanguageCode.values()) {
+			byLanguage.put(_lc, new ConcurrentHashMap<String, CompactId[]>());
+		}
+	}
+
+	/**
+	 * @param languageCode a language
+	 * @return true if a text may belong to one tag only in this language
+	 */
+	boolean isUnique(LanguageCode languageCode) {
+		return languageCode != null && uniqueLanguages.contains(languageCode);
+	}
+
+	/**
+	 * Add a text of a tag. Adding a text that is already indexed for this tag does nothing.
+	 * @param tid the id of the tag
+	 * @param languageCode the language of the text; texts without a language are not indexed
+	 * @param text the text
+	 * @param enforceUnique true if the text must not be added if the language is unique and another tag has the same text
+	 * @return null if the text was added or was already indexed for this tag, 
+	 * 		or the id of the other tag that has this text in a unique language
+	 */
+	CompactId add(CompactId tid, LanguageCode languageCode, String text, boolean enforceUnique) {
+		if (languageCode == null) {
+			return null;
+		}
+		ConcurrentMap<String, CompactId[]> _map = byLanguage.get(languageCode);
+		String _key = PrefixSearchIndex.normalize(text);
+		boolean _check = enforceUnique && isUnique(languageCode);
+		while (true) {
+			CompactId[] _tags = _map.get(_key);
+			if (_tags == null) {
+				if (_map.putIfAbsent(_key, new CompactId[] { tid }) == null) {
+					return null;
+				}
+				continue;
+			}
+			if (indexOf(_tags, tid) >= 0) {
+				return null;
+			}
+			if (_check) {
+				return _tags[0];
+			}
+			CompactId[] _new = Arrays.copyOf(_tags, _tags.length + 1);
+			_new[_tags.length] = tid;
+			if (_map.replace(_key, _tags, _new)) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Remove a text of a tag.
+	 * @param tid the id of the tag
+	 * @param languageCode the language of the text
+	 * @param text the text
+	 */
+	void remove(CompactId tid, LanguageCode languageCode, String text) {
+		if (languageCode == null) {
+			return;
+		}
+		ConcurrentMap<String, CompactId[]> _map = byLanguage.get(languageCode);
+		String _key = PrefixSearchIndex.normalize(text);
+		while (true) {
+			CompactId[] _tags = _map.get(_key);
+			int _i = _tags == null ? -1 : indexOf(_tags, tid);
+			if (_i < 0) {
+				return;
+			}
+			boolean _done = false;
+			if (_tags.length == 1) {
+				_done = _map.remove(_key, _tags);
+			} else {
+				CompactId[] _new = new CompactId[_tags.length - 1];
+				System.arraycopy(_tags, 0, _new, 0, _i);
+				System.arraycopy(_tags, _i + 1, _new, _i, _tags.length - _i - 1);
+				_done = _map.replace(_key, _tags, _new);
+			}
+			if (_done) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Test whether a text of a tag is indexed.
+	 * @param tid the id of the tag
+	 * @param languageCode the language of the text
+	 * @param text the text
+	 * @return true if the tag is indexed under the normalized text in this language
+	 */
+	boolean contains(CompactId tid, LanguageCode languageCode, String text) {
+		return languageCode != null && indexOf(lookup(languageCode, text), tid) >= 0;
+	}
+
+	/**
+	 * Test whether two texts are indexed under the same key.
+	 * @param text a text
+	 * @param other another text
+	 * @return true if both texts have the same normalized form
+	 */
+	static boolean sameKey(String text, String other) {
+		return PrefixSearchIndex.normalize(text).equals(PrefixSearchIndex.normalize(other));
+	}
+
+	/**
+	 * Find the tags that have a text in a language.
+	 * @param languageCode the language
+	 * @param text the text; it is normalized like the indexed texts
+	 * @return the ids of the tags; must not be modified
+	 */
+	CompactId[] lookup(LanguageCode languageCode, String text) {
+		CompactId[] _tags = byLanguage.get(languageCode).get(PrefixSearchIndex.normalize(text));
+		return _tags == null ? NO_TAGS : _tags;
+	}
+
+	/**
+	 * Find the tags that have a text in a language.
+	 * @param languageCode the language
+	 * @param text the text; it is normalized like the indexed texts
+	 * @return the ids of the tags, in the order in which they were added
+	 */
+	List<String> lookupIds(LanguageCode languageCode, String text) {
+		CompactId[] _tags = lookup(languageCode, text);
+		if (_tags.length == 0) {
+			return Collections.emptyList();
+		}
+		List<String> _ids = new ArrayList<String>(_tags.length);
+		for (CompactId _tag : _tags) {
+			_ids.add(_tag.toString());
+		}
+		return _ids;
+	}
+
+	private static int indexOf(CompactId[] tags, CompactId tid) {
+		for (int i = 0; i < tags.length; i++) {
+			if (tags[i].equals(tid)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
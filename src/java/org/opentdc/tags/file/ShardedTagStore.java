@@ -0,0 +1,351 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.opentdc.service.exception.InternalServerErrorException;
+
+/**
+ * Partitioned storage of the tags: each tag is hashed by its id into one of N shard files
+ * with the same format as the data file.
+ * Mutations mark the shard of the tag dirty, and a write only rewrites the dirty shards,
+ * so that the I/O of a write scales with the size of a shard instead of the size of the catalog.
+ * Each shard is written to a temporary file that is then renamed atomically over the shard,
+ * so that a crash never leaves a torn shard behind.
+ * @author Bruno Kaiser
+ *
+ */
+class ShardedTagStore {
+	private static final Logger logger = Logger.getLogger(ShardedTagStore.class.getName());
+	private static final Pattern SHARD_FN = Pattern.compile("shard-(\\d+)-of-(\\d+)\\.json");
+	private final File dir;
+	private final int shards;
+	private final AtomicIntegerArray dirty;
+	// true while the directory contains shard files of another number of shards
+	private volatile boolean stale = false;
+
+	/**
+	 * Constructor.
+	 * @param dir the directory of the shard files; created if it does not exist
+	 * @param shards the number of shards
+	 */
+	ShardedTagStore(
+		File dir,
+		int shards
+	) {
+		this.dir = dir;
+		this.shards = shards;
+		this.dirty = new AtomicIntegerArray(shards);
+	}
+
+	/**
+	 * Open the shard files that are left in a directory, e.g. after sharding was disabled.
+	 * The number of shards is taken from the most recently written shard file.
+	 * @param dir the directory of the shard files
+	 * @return the store, or null if the directory contains no shard files
+	 */
+	static ShardedTagStore existing(
+			File dir) {
+		File _newest = null;
+		for (File _file : new ShardedTagStore(dir, 1).listShardFiles()) {
+			if (_newest == null || _file.lastModified() > _newest.lastModified()) {
+				_newest = _file;
+			}
+		}
+		if (_newest == null) {
+			return null;
+		}
+		Matcher _matcher = SHARD_FN.matcher(_newest.getName());
+		_matcher.matches();
+		return new ShardedTagStore(dir, Integer.parseInt(_matcher.group(2)));
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	int getShards() {
+		return shards;
+	}
+
+	/**
+	 * Determine the shard of a tag.
+	 * The hash of a CompactId only depends on the id, so the assignment is stable across restarts.
+	 * @param tid the id of the tag
+	 * @return the number of the shard
+	 */
+	int shardOf(CompactId tid) {
+		return (tid.hashCode() & Integer.MAX_VALUE) % shards;
+	}
+
+	private File shardFile(int shard) {
+		return new File(dir, "shard-" + shard + "-of-" + shards + ".json");
+	}
+
+	/**
+	 * @return all shard files in the directory, including those of another number of shards
+	 */
+	private File[] listShardFiles() {
+		File[] _files = dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File d, String name) {
+				return SHARD_FN.matcher(name).matches();
+			}
+		});
+		return _files == null ? new File[0] : _files;
+	}
+
+	/**
+	 * @return true if the directory contains shard files
+	 */
+	boolean exists() {
+		return listShardFiles().length > 0;
+	}
+
+	/**
+	 * @return true if the directory contains shard files of another number of shards that were not yet rewritten
+	 */
+	boolean isStale() {
+		return stale;
+	}
+
+	/**
+	 * Record that a tag was changed, so that its shard is written with the next write.
+	 * @param tid the id of the tag
+	 */
+	void markDirty(CompactId tid) {
+		dirty.set(shardOf(tid), 1);
+	}
+
+	/**
+	 * Mark all shards dirty, e.g. after the catalog was loaded from another layout.
+	 */
+	void markAllDirty() {
+		for (int i = 0; i < shards; i++) {
+			dirty.set(i, 1);
+		}
+	}
+
+	/**
+	 * Load all shard files in parallel.
+	 * Files written with another number of shards are loaded as well, before the current ones, so that
+	 * the current shards win if a previous change of the number of shards was interrupted. In this case
+	 * all shards are rewritten with the next write, and the stale files are deleted afterwards.
+	 * @param index the index of tags by id; must be thread-safe
+	 * @param textIndex the index of localized texts by id; must be thread-safe
+	 * @param threads the number of shards that are loaded at the same time
+	 * @return the number of tags loaded
+	 * @throws IOException if a shard could not be read or parsed
+	 */
+	int load(
+		Map<CompactId, CompactTag> index,
+		Map<CompactId, CompactText> textIndex,
+		int threads
+	) throws IOException {
+		long _start = System.currentTimeMillis();
+		List<File> _staleFiles = new ArrayList<File>();
+		List<File> _currentFiles = new ArrayList<File>();
+		for (File _file : listShardFiles()) {
+			(isCurrent(_file) ? _currentFiles : _staleFiles).add(_file);
+		}
+		if (!_staleFiles.isEmpty()) {
+			logger.info("found " + _staleFiles.size() + " shards of another number of shards in <" + 
+					dir.getPath() + ">; all shards will be rewritten.");
+			stale = true;
+			markAllDirty();
+		}
+		int _count = load(_staleFiles, index, textIndex, threads) + load(_currentFiles, index, textIndex, threads);
+		logger.info("loaded " + _count + " tags from " + (_staleFiles.size() + _currentFiles.size()) + 
+				" shards in <" + dir.getPath() + "> in " + (System.currentTimeMillis() - _start) + "ms.");
+		return _count;
+	}
+
+	private boolean isCurrent(File shardF) {
+		Matcher _matcher = SHARD_FN.matcher(shardF.getName());
+		return _matcher.matches() && Integer.parseInt(_matcher.group(2)) == shards;
+	}
+
+	private int load(
+		List<File> files,
+		final Map<CompactId, CompactTag> index,
+		final Map<CompactId, CompactText> textIndex,
+		int threads
+	) throws IOException {
+		if (files.isEmpty()) {
+			return 0;
+		}
+		ExecutorService _executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+		List<Future<Integer>> _futures = new ArrayList<Future<Integer>>(files.size());
+		int _count = 0;
+		try {
+			for (final File _file : files) {
+				_futures.add(_executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws IOException {
+						return new StreamingTagLoader(1).load(_file, index, textIndex);
+					}
+				}));
+			}
+			for (Future<Integer> _future : _futures) {
+				_count += _future.get();
+			}
+		} catch (InterruptedException _ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("loading the shards in <" + dir.getPath() + "> was interrupted", _ex);
+		} catch (ExecutionException _ex) {
+			if (_ex.getCause() instanceof IOException) {
+				throw (IOException) _ex.getCause();
+			}
+			throw new IOException("could not load the shards in <" + dir.getPath() + ">: " + _ex.getCause(), _ex.getCause());
+		} finally {
+			_executor.shutdownNow();
+		}
+		return _count;
+	}
+
+	/**
+	 * Write all dirty shards.
+	 * The tags of the dirty shards are collected in one pass over the index; only these shards are serialized.
+	 * Callers must serialize writes. A shard that is changed while it is written stays dirty.
+	 * @param tags all tags of the catalog
+	 * @param force true if the shards must be forced to disk
+	 * @return the number of bytes written
+	 * @throws InternalServerErrorException if a shard could not be written; it stays dirty
+	 */
+	long writeDirty(Collection<CompactTag> tags, boolean force) {
+		if (stale) {	// until all shards were written once, the stale files may contain tags that are needed
+			markAllDirty();
+		}
+		// the flags are cleared before the tags are collected, so that a concurrent mutation marks its shard again
+		boolean[] _dirty = new boolean[shards];
+		int _dirtyCount = 0;
+		for (int i = 0; i < shards; i++) {
+			if (dirty.getAndSet(i, 0) == 1) {
+				_dirty[i] = true;
+				_dirtyCount++;
+			}
+		}
+		if (_dirtyCount == 0) {
+			return 0;
+		}
+		List<List<CompactTag>> _members = new ArrayList<List<CompactTag>>(shards);
+		for (int i = 0; i < shards; i++) {
+			_members.add(_dirty[i] ? new ArrayList<CompactTag>() : null);
+		}
+		for (CompactTag _tag : tags) {
+			int _shard = shardOf(_tag.getKey());
+			if (_dirty[_shard]) {
+				_members.get(_shard).add(_tag);
+			}
+		}
+		long _bytes = 0;
+		for (int i = 0; i < shards; i++) {
+			if (_dirty[i]) {
+				try {
+					_bytes += writeShard(i, _members.get(i), force);
+				} catch (IOException _ex) {
+					for (int j = i; j < shards; j++) {
+						if (_dirty[j]) {
+							dirty.set(j, 1);
+						}
+					}
+					throw new InternalServerErrorException("could not write shard <" + 
+							shardFile(i).getPath() + ">: " + _ex.getMessage());
+				}
+			}
+		}
+		if (stale) {
+			deleteStaleShards();
+			stale = false;
+		}
+		return _bytes;
+	}
+
+	/**
+	 * Write a shard to a temporary file and rename it over the shard.
+	 * @param shard the number of the shard
+	 * @param tags the tags of the shard
+	 * @param force true if the shard must be forced to disk before it is renamed
+	 * @return the size of the shard file
+	 * @throws IOException if the shard could not be written
+	 */
+	private long writeShard(int shard, List<CompactTag> tags, boolean force) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("could not create directory <" + dir.getPath() + ">");
+		}
+		return JsonTagWriter.write(tags, shardFile(shard), force);
+	}
+
+	/**
+	 * Force all shard files to disk, e.g. at shutdown after they were written without force.
+	 * @throws IOException if a shard file could not be forced
+	 */
+	void force() throws IOException {
+		for (int i = 0; i < shards; i++) {
+			JsonTagWriter.force(shardFile(i));
+		}
+	}
+
+	/**
+	 * Delete all shard files, e.g. after their tags were written to the data file.
+	 * @throws IOException if a shard file could not be deleted
+	 */
+	void deleteAll() throws IOException {
+		for (File _file : listShardFiles()) {
+			if (!_file.delete() && _file.exists()) {
+				throw new IOException("could not delete shard <" + _file.getPath() + ">");
+			}
+		}
+		logger.info("deleted the shards in <" + dir.getPath() + ">.");
+	}
+
+	/**
+	 * Delete the shard files of another number of shards.
+	 * Only called after all shards were written, so that their tags are contained in the current shards.
+	 */
+	private void deleteStaleShards() {
+		for (File _file : listShardFiles()) {
+			if (!isCurrent(_file)) {
+				if (_file.delete()) {
+					logger.info("deleted stale shard <" + _file.getPath() + ">.");
+				}
+			}
+		}
+	}
+}
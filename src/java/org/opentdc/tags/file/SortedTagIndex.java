@@ -0,0 +1,249 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.opentdc.tags.SingleLangTag;
+import org.opentdc.util.LanguageCode;
+
+/**
+ * Sorted views of all localized texts, one per LanguageCode and one over all languages.
+ * The views are kept up to date incrementally, so that a page of tags can be served
+ * without scanning and sorting the whole catalog.
+ * Texts are ordered case-insensitively like SingleLangTag.TagComparator; ties are broken by tag id
+ * and LanguageCode to make the order total. Because the order depends only on values that clients see,
+ * a page can also be resolved by seeking past the last element of the previous page (see TagCursor).
+ * @author Bruno Kaiser
+ *
+ */
+class SortedTagIndex {
+	private final Map<LanguageCode, NavigableSet<Entry>> byLanguage;
+	private final NavigableSet<Entry> all = new ConcurrentSkipListSet<Entry>();
+	private final Map<CompactId, Entry> entries = new ConcurrentHashMap<CompactId, Entry>();
+
+	/**
+	 * Constructor.
+	 */
+	SortedTagIndex() {
+		// the map itself is never modified after construction; only the sets are
+		byLanguage = new EnumMap<LanguageCode, NavigableSet<Entry>>(LanguageCode.class);
+		for (LanguageCode _lc : LanguageCode.values()) {
+			byLanguage.put(_lc, new ConcurrentSkipListSet<Entry>());
+		}
+	}
+
+	/**
+	 * Add a localized text, or re-sort it after its text was changed.
+	 * @param tagId the id of the tag that owns the text
+	 * @param text the localized text
+	 */
+	void put(CompactId tagId, CompactText text) {
+		Entry _entry = new Entry(sortKey(text.getText()), tagId, text);
+		Entry _old = entries.put(text.getKey(), _entry);
+		if (_old != null) {
+			unlink(_old);
+		}
+		all.add(_entry);
+		if (text.getLanguageCode() != null) {
+			byLanguage.get(text.getLanguageCode()).add(_entry);
+		}
+	}
+
+	/**
+	 * Compute the key by which the texts are sorted.
+	 * @param text the text; may be null
+	 * @return the sort key
+	 */
+	protected String sortKey(String text) {
+		return text == null ? "" : text.toUpperCase();
+	}
+
+	/**
+	 * Retrieve the sorted view of a language.
+	 * @param languageCode the language of the texts, or null for all languages
+	 * @return the sorted view
+	 */
+	protected NavigableSet<Entry> view(LanguageCode languageCode) {
+		return languageCode == null ? all : byLanguage.get(languageCode);
+	}
+
+	/**
+	 * Remove a localized text.
+	 * @param textId the id of the localized text
+	 */
+	void remove(CompactId textId) {
+		Entry _old = entries.remove(textId);
+		if (_old != null) {
+			unlink(_old);
+		}
+	}
+
+	private void unlink(Entry entry) {
+		all.remove(entry);
+		if (entry.languageCode != null) {
+			byLanguage.get(entry.languageCode).remove(entry);
+		}
+	}
+
+	/**
+	 * Retrieve a page of tags in sort order.
+	 * Only the returned elements are allocated.
+	 * @param languageCode the language of the texts, or null for all languages
+	 * @param position the index of the first element to return
+	 * @param size the maximal number of elements to return
+	 * @return the entries on this page; immutable, see toTags()
+	 */
+	List<Entry> page(LanguageCode languageCode, int position, int size) {
+		return page(view(languageCode).iterator(), position, size);
+	}
+
+	/**
+	 * Retrieve the page of tags that follows a cursor.
+	 * The cost depends only on the page size, and concurrent inserts before the cursor do not shift the page.
+	 * @param languageCode the language of the texts, or null for all languages
+	 * @param cursor the last element of the previous page
+	 * @param size the maximal number of elements to return
+	 * @return the entries on this page; immutable, see toTags()
+	 */
+	List<Entry> pageAfter(LanguageCode languageCode, TagCursor cursor, int size) {
+		return page(view(languageCode).tailSet(cursorEntry(cursor), false).iterator(), 0, size);
+	}
+
+	/**
+	 * Convert a cursor into a search key in the order of this index.
+	 * @param cursor the cursor
+	 * @return the search key
+	 */
+	protected Entry cursorEntry(TagCursor cursor) {
+		return new Entry(sortKey(cursor.getText()), CompactId.of(cursor.getTagId()), cursor.getLanguageCode());
+	}
+
+	/**
+	 * Retrieve a page of entries from an iterator over entries.
+	 * @param it the entries in sort order
+	 * @param position the number of entries to skip
+	 * @param size the maximal number of elements to return
+	 * @return the entries on this page; immutable, so that a page can be shared, e.g. by the result cache
+	 */
+	protected static List<Entry> page(Iterator<Entry> it, int position, int size) {
+		ArrayList<Entry> _page = new ArrayList<Entry>(Math.max(0, Math.min(size, 1024)));
+		for (int i = 0; i < position && it.hasNext(); i++) {
+			it.next();
+		}
+		while (_page.size() < size && it.hasNext()) {
+			_page.add(it.next());
+		}
+		return Collections.unmodifiableList(_page);
+	}
+
+	/**
+	 * Materialize a page for the API.
+	 * @param page the entries of a page
+	 * @return new SingleLangTags that the caller owns
+	 */
+	static ArrayList<SingleLangTag> toTags(List<Entry> page) {
+		ArrayList<SingleLangTag> _tags = new ArrayList<SingleLangTag>(page.size());
+		for (Entry _entry : page) {
+			_tags.add(new SingleLangTag(_entry.tagId.toString(), _entry.text.toModel()));
+		}
+		return _tags;
+	}
+
+	/**
+	 * @return the number of localized texts in the index
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * A localized text with the sort key captured at the time it was indexed.
+	 */
+	static final class Entry implements Comparable<Entry> {
+		final String sortKey;
+		final CompactId tagId;
+		final LanguageCode languageCode;
+		final CompactText text;
+
+		Entry(String sortKey, CompactId tagId, CompactText text) {
+			this.sortKey = sortKey;
+			this.tagId = tagId;
+			this.languageCode = text.getLanguageCode();
+			this.text = text;
+		}
+
+		/**
+		 * Constructor for a search key.
+		 * With CompactId.MIN and no LanguageCode, it sorts before all entries with this sort key.
+		 * @param sortKey the sort key
+		 * @param tagId the id of the tag
+		 * @param languageCode the language of the text
+		 */
+		Entry(String sortKey, CompactId tagId, LanguageCode languageCode) {
+			this.sortKey = sortKey;
+			this.tagId = tagId;
+			this.languageCode = languageCode;
+			this.text = null;
+		}
+
+		/**
+		 * The order is total, because a tag has at most one text per LanguageCode.
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo(Entry other) {
+			int _c = sortKey.compareTo(other.sortKey);
+			if (_c == 0) {
+				_c = tagId.compareTo(other.tagId);
+			}
+			if (_c == 0) {
+				_c = ordinal(languageCode) - ordinal(other.languageCode);
+			}
+			return _c;
+		}
+
+		private static int ordinal(LanguageCode languageCode) {
+			return languageCode == null ? -1 : languageCode.ordinal();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Entry && compareTo((Entry) other) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * tagId.hashCode() + ordinal(languageCode);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Loads the data file tag by tag with the Gson streaming reader.
+ * Parsing is sequential, but the parsed tags are handed over in batches to worker threads
+ * that fill the indexes, so that the whole file is never materialized as one list.
+ * @author Bruno Kaiser
+ *
+ */
+class StreamingTagLoader {
+	private static final Logger logger = Logger.getLogger(StreamingTagLoader.class.getName());
+	// rough size of a tag with a few localized texts in the data file; used to pre-size the maps
+	static final int ESTIMATED_BYTES_PER_TAG = 512;
+	private static final int BATCH_SIZE = 1024;
+	private final Gson gson = new Gson();
+	private final int threads;
+
+	/**
+	 * Constructor.
+	 * @param threads the number of threads that fill the indexes; 1 fills them on the calling thread
+	 */
+	StreamingTagLoader(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Estimate the number of tags in a data file.
+	 * @param dataF the data file
+	 * @return the estimated number of tags
+	 */
+	static int estimateTags(File dataF) {
+		return (int) Math.min(Integer.MAX_VALUE / 2, Math.max(16, dataF.length() / ESTIMATED_BYTES_PER_TAG));
+	}
+
+	/**
+	 * Load all tags of a data file into the indexes.
+	 * @param dataF the data file, containing a JSON array of MultiLangTags
+	 * @param index the index of tags by id; must be thread-safe if more than one thread is used
+	 * @param textIndex the index of localized texts by id; must be thread-safe if more than one thread is used
+	 * @return the number of tags loaded
+	 * @throws IOException if the file could not be read or parsed
+	 */
+	int load(
+		File dataF,
+		final Map<CompactId, CompactTag> index,
+		final Map<CompactId, CompactText> textIndex
+	) throws IOException {
+		long _start = System.currentTimeMillis();
+		int _count = 0;
+		ExecutorService _executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		List<Future<?>> _futures = new ArrayList<Future<?>>();
+		JsonReader _reader = new JsonReader(new BufferedReader(
+				new InputStreamReader(new FileInputStream(dataF), "UTF-8"), 64 * 1024));
+		try {
+			List<MultiLangTag> _batch = new ArrayList<MultiLangTag>(BATCH_SIZE);
+			_reader.beginArray();
+			while (_reader.hasNext()) {
+				MultiLangTag _tag = gson.fromJson(_reader, MultiLangTag.class);
+				if (_tag == null || _tag.getModel() == null) {
+					continue;
+				}
+				_batch.add(_tag);
+				_count++;
+				if (_batch.size() == BATCH_SIZE) {
+					submit(_executor, _futures, _batch, index, textIndex);
+					_batch = new ArrayList<MultiLangTag>(BATCH_SIZE);
+				}
+			}
+			_reader.endArray();
+			submit(_executor, _futures, _batch, index, textIndex);
+			for (Future<?> _future : _futures) {
+				_future.get();
+			}
+		} catch (JsonParseException _ex) {
+			throw new IOException("could not parse <" + dataF.getPath() + ">: " + _ex.getMessage(), _ex);
+		} catch (InterruptedException _ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("loading <" + dataF.getPath() + "> was interrupted", _ex);
+		} catch (ExecutionException _ex) {
+			throw new IOException("could not index <" + dataF.getPath() + ">: " + _ex.getCause(), _ex.getCause());
+		} finally {
+			_reader.close();
+			if (_executor != null) {
+				_executor.shutdownNow();
+			}
+		}
+		long _millis = Math.max(1, System.currentTimeMillis() - _start);
+		logger.info("loaded " + _count + " tags (" + dataF.length() + " bytes) from <" + dataF.getPath() + 
+				"> in " + _millis + "ms with " + threads + " threads; " + (_count * 1000L / _millis) + " tags/s.");
+		return _count;
+	}
+
+	/**
+	 * Convert a batch of tags into their compact form and index them, on a worker thread if there is an executor.
+	 */
+	private void submit(
+		ExecutorService executor,
+		List<Future<?>> futures,
+		final List<MultiLangTag> batch,
+		final Map<CompactId, CompactTag> index,
+		final Map<CompactId, CompactText> textIndex
+	) {
+		Runnable _task = new Runnable() {
+			@Override
+			public void run() {
+				for (MultiLangTag _tag : batch) {
+					CompactTag _compact = CompactTag.of(_tag);
+					index.put(_compact.getKey(), _compact);
+					for (CompactText _text : _compact.getTexts()) {
+						textIndex.put(_text.getKey(), _text);
+					}
+				}
+			}
+		};
+		if (executor != null) {
+			futures.add(executor.submit(_task));
+		} else {
+			_task.run();
+		}
+	}
+}
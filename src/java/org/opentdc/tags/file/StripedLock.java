@@ -0,0 +1,103 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks, selected by the hash of a key.
+ * Writers of different tags mostly get different locks and can proceed in parallel,
+ * while writers of the same tag are serialized.
+ * @author Bruno Kaiser
+ *
+ */
+class StripedLock {
+	private final ReentrantLock[] locks;
+	private final int mask;
+
+	/**
+	 * Constructor.
+	 * @param minStripes the minimal number of locks; rounded up to a power of two
+	 */
+	StripedLock(int minStripes) {
+		int _stripes = 1;
+		while (_stripes < minStripes) {
+			_stripes <<= 1;
+		}
+		locks = new ReentrantLock[_stripes];
+		for (int i = 0; i < _stripes; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		mask = _stripes - 1;
+	}
+
+	/**
+	 * Retrieve the lock for a key.
+	 * @param key the id of the tag
+	 * @return the lock
+	 */
+	ReentrantLock get(String key) {
+		return locks[stripe(key)];
+	}
+
+	private int stripe(String key) {
+		int _h = key.hashCode();
+		_h ^= (_h >>> 16);
+		return _h & mask;
+	}
+
+	/**
+	 * Acquire the locks of several keys.
+	 * The locks are always acquired in the same order, so that two threads locking
+	 * overlapping sets of keys can not deadlock.
+	 * @param keys the ids of the tags
+	 * @return the acquired locks; release them with unlockAll()
+	 */
+	List<ReentrantLock> lockAll(Collection<String> keys) {
+		TreeSet<Integer> _stripes = new TreeSet<Integer>();
+		for (String _key : keys) {
+			_stripes.add(stripe(_key));
+		}
+		List<ReentrantLock> _locked = new ArrayList<ReentrantLock>(_stripes.size());
+		for (Integer _stripe : _stripes) {
+			locks[_stripe].lock();
+			_locked.add(locks[_stripe]);
+		}
+		return _locked;
+	}
+
+	/**
+	 * Release locks acquired with lockAll().
+	 * @param locked the locks
+	 */
+	static void unlockAll(List<ReentrantLock> locked) {
+		for (int i = locked.size() - 1; i >= 0; i--) {
+			locked.get(i).unlock();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of FileServiceProvider.getChangesSince(): the tags that changed after a version of the store.
+ * @author Bruno Kaiser
+ *
+ */
+public class TagChanges {
+	private final long since;
+	private final long version;
+	private final boolean reset;
+	private final List<MultiLangTag> changedTags = new ArrayList<MultiLangTag>();
+	private final List<String> deletedIds = new ArrayList<String>();
+
+	/**
+	 * Constructor.
+	 * @param since the version the caller knew
+	 * @param version the version of the store the changes lead to
+	 * @param reset true if the changes since this version are no longer known
+	 */
+	TagChanges(long since, long version, boolean reset) {
+		this.since = since;
+		this.version = version;
+		this.reset = reset;
+	}
+
+	void changed(MultiLangTag tag) {
+		changedTags.add(tag);
+	}
+
+	void deleted(String id) {
+		deletedIds.add(id);
+	}
+
+	/**
+	 * @return the version the caller knew
+	 */
+	public long getSince() {
+		return since;
+	}
+
+	/**
+	 * @return the version of the store after these changes; pass it to the next call of getChangesSince()
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return true if the changes since the requested version are no longer known, e.g. after a restart;
+	 * the caller has to reload all tags. There are no changed and deleted tags in this case.
+	 */
+	public boolean isReset() {
+		return reset;
+	}
+
+	/**
+	 * @return true if nothing changed since the requested version
+	 */
+	public boolean isEmpty() {
+		return !reset && changedTags.isEmpty() && deletedIds.isEmpty();
+	}
+
+	/**
+	 * @return the created and updated tags with all their localized texts, in the order of their changes
+	 */
+	public List<MultiLangTag> getChangedTags() {
+		return Collections.unmodifiableList(changedTags);
+	}
+
+	/**
+	 * @return the ids of the deleted tags (tombstones)
+	 */
+	public List<String> getDeletedIds() {
+		return Collections.unmodifiableList(deletedIds);
+	}
+}
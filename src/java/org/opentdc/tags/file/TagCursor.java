@@ -0,0 +1,130 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.nio.charset.Charset;
+
+import org.opentdc.service.exception.ValidationException;
+import org.opentdc.util.LanguageCode;
+
+/**
+ * Position in the sorted list of tags, for keyset pagination with list().
+ * A cursor identifies the last element of a page by its text, tag id and LanguageCode;
+ * the next page starts right after it, no matter how many tags were inserted or removed before it.
+ * Clients pass the encoded cursor as query term cursor=&lt;encoded&gt;.
+ * @author Bruno Kaiser
+ *
+ */
+public class TagCursor {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private final String tagId;
+	private final LanguageCode languageCode;
+	private final String text;
+
+	/**
+	 * Constructor.
+	 * @param tagId the id of the last tag of the previous page
+	 * @param languageCode the language of its text
+	 * @param text its text
+	 */
+	public TagCursor(
+		String tagId,
+		LanguageCode languageCode,
+		String text
+	) {
+		this.tagId = tagId == null ? "" : tagId;
+		this.languageCode = languageCode;
+		this.text = text == null ? "" : text;
+	}
+
+	/**
+	 * @return the id of the tag
+	 */
+	public String getTagId() {
+		return tagId;
+	}
+
+	/**
+	 * @return the LanguageCode of the text
+	 */
+	public LanguageCode getLanguageCode() {
+		return languageCode;
+	}
+
+	/**
+	 * @return the text
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Encode the cursor as an opaque string that can be used as a query term.
+	 * @return the encoded cursor
+	 */
+	public String encode() {
+		String _plain = tagId + "\n" + (languageCode == null ? "" : languageCode.name()) + "\n" + text;
+		byte[] _bytes = _plain.getBytes(UTF8);
+		char[] _hex = new char[2 * _bytes.length];
+		for (int i = 0; i < _bytes.length; i++) {
+			_hex[2 * i] = HEX[(_bytes[i] >> 4) & 0xf];
+			_hex[2 * i + 1] = HEX[_bytes[i] & 0xf];
+		}
+		return new String(_hex);
+	}
+
+	/**
+	 * Decode a cursor.
+	 * @param encoded the cursor as returned by encode()
+	 * @return the cursor
+	 * @throws ValidationException if the cursor is not valid
+	 */
+	public static TagCursor decode(String encoded) throws ValidationException {
+		if (encoded == null || encoded.length() % 2 != 0) {
+			throw new ValidationException("cursor <" + encoded + "> is not valid.");
+		}
+		byte[] _bytes = new byte[encoded.length() / 2];
+		for (int i = 0; i < _bytes.length; i++) {
+			int _hi = Character.digit(encoded.charAt(2 * i), 16);
+			int _lo = Character.digit(encoded.charAt(2 * i + 1), 16);
+			if (_hi < 0 || _lo < 0) {
+				throw new ValidationException("cursor <" + encoded + "> is not valid.");
+			}
+			_bytes[i] = (byte) ((_hi << 4) | _lo);
+		}
+		String[] _parts = new String(_bytes, UTF8).split("\n", 3);
+		if (_parts.length != 3) {
+			throw new ValidationException("cursor <" + encoded + "> is not valid.");
+		}
+		try {
+			return new TagCursor(
+				_parts[0], 
+				_parts[1].isEmpty() ? null : LanguageCode.valueOf(_parts[1]), 
+				_parts[2]);
+		} catch (IllegalArgumentException _ex) {
+			throw new ValidationException("cursor <" + encoded + "> contains an invalid LanguageCode.");
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opentdc.service.LocalizedTextModel;
+import org.opentdc.tags.TagModel;
+
+/**
+ * A tag with its localized texts, as passed to FileServiceProvider.importTags().
+ * A tag without id is created; a tag with the id of an existing tag is updated.
+ * Likewise, texts without id are added to the tag, and texts with an id replace the existing text.
+ * @author Bruno Kaiser
+ *
+ */
+public class TagImportItem {
+	private TagModel tag;
+	private List<LocalizedTextModel> texts;
+
+	/**
+	 * Constructor.
+	 */
+	public TagImportItem() {
+		texts = new ArrayList<LocalizedTextModel>();
+	}
+
+	/**
+	 * Constructor.
+	 * @param tag the tag
+	 * @param texts the localized texts of the tag
+	 */
+	public TagImportItem(
+		TagModel tag,
+		List<LocalizedTextModel> texts
+	) {
+		this.tag = tag;
+		this.texts = texts;
+	}
+
+	/**
+	 * @return the tag
+	 */
+	public TagModel getTag() {
+		return tag;
+	}
+
+	/**
+	 * @param tag the tag
+	 */
+	public void setTag(TagModel tag) {
+		this.tag = tag;
+	}
+
+	/**
+	 * @return the localized texts of the tag
+	 */
+	public List<LocalizedTextModel> getTexts() {
+		return texts;
+	}
+
+	/**
+	 * @param texts the localized texts of the tag
+	 */
+	public void setTexts(List<LocalizedTextModel> texts) {
+		this.texts = texts;
+	}
+}
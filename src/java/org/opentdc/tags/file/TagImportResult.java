@@ -0,0 +1,115 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.List;
+
+import org.opentdc.service.LocalizedTextModel;
+import org.opentdc.tags.TagModel;
+
+/**
+ * The outcome of one TagImportItem of FileServiceProvider.importTags().
+ * @author Bruno Kaiser
+ *
+ */
+public class TagImportResult {
+	public enum Status {
+		APPLIED,	// the item was stored
+		FAILED,		// the item was invalid and was not stored
+		SKIPPED		// the item was valid, but was not stored because another item of an all-or-nothing batch failed
+	}
+
+	private final String tagId;
+	private Status status;
+	private String errorType;
+	private String errorMessage;
+	private TagModel tag;
+	private List<LocalizedTextModel> texts;
+
+	/**
+	 * Constructor.
+	 * @param tagId the id of the tag; generated for new tags
+	 */
+	TagImportResult(String tagId) {
+		this.tagId = tagId;
+	}
+
+	void applied(TagModel tag, List<LocalizedTextModel> texts) {
+		this.status = Status.APPLIED;
+		this.tag = tag;
+		this.texts = texts;
+	}
+
+	void failed(RuntimeException error) {
+		this.status = Status.FAILED;
+		this.errorType = error.getClass().getSimpleName();
+		this.errorMessage = error.getMessage();
+	}
+
+	void skipped() {
+		this.status = Status.SKIPPED;
+	}
+
+	/**
+	 * @return the id of the tag
+	 */
+	public String getTagId() {
+		return tagId;
+	}
+
+	/**
+	 * @return the status of the item
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the simple class name of the exception if the item failed, null otherwise
+	 */
+	public String getErrorType() {
+		return errorType;
+	}
+
+	/**
+	 * @return the reason why the item failed, null otherwise
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * @return the stored tag if the item was applied, null otherwise
+	 */
+	public TagModel getTag() {
+		return tag;
+	}
+
+	/**
+	 * @return the stored localized texts of the item if it was applied, null otherwise
+	 */
+	public List<LocalizedTextModel> getTexts() {
+		return texts;
+	}
+}
@@ -0,0 +1,249 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Call counts, error counts and latency histograms of the operations of the FileServiceProvider,
+ * timings of the data file and gauges of the store.
+ * Readable through JMX (TagsMetricsMXBean) or directly with the getters.
+ * @author Bruno Kaiser
+ *
+ */
+public class TagsMetrics implements TagsMetricsMXBean {
+	/**
+	 * The instrumented operations.
+	 */
+	public enum Operation {
+		LIST("list"),
+		CREATE("create"),
+		READ("read"),
+		UPDATE("update"),
+		DELETE("delete"),
+		LIST_TEXTS("listTexts"),
+		CREATE_TEXT("createText"),
+		READ_TEXT("readText"),
+		UPDATE_TEXT("updateText"),
+		DELETE_TEXT("deleteText"),
+		IMPORT_TAGS("importTags");
+
+		private final String label;
+
+		private Operation(String label) {
+			this.label = label;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	/**
+	 * The current state of the store, sampled when the metrics are read.
+	 */
+	interface Gauges {
+		int getTagCount();
+		int getTextCount();
+		int getPendingMutations();
+		long getListCacheHits();
+		long getListCacheMisses();
+		int getListCacheSize();
+	}
+
+	private static class Counters {
+		final AtomicLong calls = new AtomicLong();
+		final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+		final LatencyHistogram latency = new LatencyHistogram();
+	}
+
+	private final EnumMap<Operation, Counters> counters = new EnumMap<Operation, Counters>(Operation.class);
+	private final LatencyHistogram exportLatency = new LatencyHistogram();
+	private final AtomicLong lastExportBytes = new AtomicLong();
+	private final AtomicLong exportBytesTotal = new AtomicLong();
+	private final AtomicLong importMillis = new AtomicLong();
+	private final Gauges gauges;
+
+	/**
+	 * Constructor.
+	 * @param gauges samples the state of the store
+	 */
+	TagsMetrics(Gauges gauges) {
+		this.gauges = gauges;
+		// the map is never modified after construction
+		for (Operation _op : Operation.values()) {
+			counters.put(_op, new Counters());
+		}
+	}
+
+	/**
+	 * Record a completed call.
+	 * @param op the operation
+	 * @param startNanos the value of System.nanoTime() when the call started
+	 */
+	void called(Operation op, long startNanos) {
+		Counters _counters = counters.get(op);
+		_counters.calls.incrementAndGet();
+		_counters.latency.record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Record a failed call. The call itself is recorded with called().
+	 * @param op the operation
+	 * @param error the exception thrown by the call
+	 */
+	void failed(Operation op, RuntimeException error) {
+		ConcurrentMap<String, AtomicLong> _errors = counters.get(op).errors;
+		String _type = error.getClass().getSimpleName();
+		AtomicLong _count = _errors.get(_type);
+		if (_count == null) {
+			AtomicLong _new = new AtomicLong();
+			_count = _errors.putIfAbsent(_type, _new);
+			if (_count == null) {
+				_count = _new;
+			}
+		}
+		_count.incrementAndGet();
+	}
+
+	/**
+	 * Record a write of the data file.
+	 * @param startNanos the value of System.nanoTime() when the write started
+	 * @param bytes the size of the data file after the write, or -1 if unknown
+	 */
+	void exported(long startNanos, long bytes) {
+		exportLatency.record(System.nanoTime() - startNanos);
+		if (bytes >= 0) {
+			lastExportBytes.set(bytes);
+			exportBytesTotal.addAndGet(bytes);
+		}
+	}
+
+	/**
+	 * Record the loading of the store at startup.
+	 * @param millis the duration
+	 */
+	void imported(long millis) {
+		importMillis.set(millis);
+	}
+
+	@Override
+	public int getTagCount() {
+		return gauges.getTagCount();
+	}
+
+	@Override
+	public int getTextCount() {
+		return gauges.getTextCount();
+	}
+
+	@Override
+	public int getPendingMutations() {
+		return gauges.getPendingMutations();
+	}
+
+	@Override
+	public long getListCacheHits() {
+		return gauges.getListCacheHits();
+	}
+
+	@Override
+	public long getListCacheMisses() {
+		return gauges.getListCacheMisses();
+	}
+
+	@Override
+	public double getListCacheHitRatio() {
+		long _hits = gauges.getListCacheHits();
+		long _lookups = _hits + gauges.getListCacheMisses();
+		return _lookups == 0 ? 0.0 : (double) _hits / _lookups;
+	}
+
+	@Override
+	public int getListCacheSize() {
+		return gauges.getListCacheSize();
+	}
+
+	@Override
+	public long getExportCount() {
+		return exportLatency.getCount();
+	}
+
+	@Override
+	public long getExportMeanMicros() {
+		return exportLatency.getMean() / 1000;
+	}
+
+	@Override
+	public long getExportMaxMicros() {
+		return exportLatency.getMax() / 1000;
+	}
+
+	@Override
+	public long getLastExportBytes() {
+		return lastExportBytes.get();
+	}
+
+	@Override
+	public long getExportBytesTotal() {
+		return exportBytesTotal.get();
+	}
+
+	@Override
+	public long getImportMillis() {
+		return importMillis.get();
+	}
+
+	@Override
+	public List<OperationStats> getOperations() {
+		List<OperationStats> _stats = new ArrayList<OperationStats>(counters.size());
+		for (Map.Entry<Operation, Counters> _entry : counters.entrySet()) {
+			Counters _counters = _entry.getValue();
+			Map<String, Long> _errors = new TreeMap<String, Long>();
+			for (Map.Entry<String, AtomicLong> _error : _counters.errors.entrySet()) {
+				_errors.put(_error.getKey(), _error.getValue().get());
+			}
+			LatencyHistogram _latency = _counters.latency;
+			_stats.add(new OperationStats(
+				_entry.getKey().getLabel(),
+				_counters.calls.get(),
+				Collections.unmodifiableMap(_errors),
+				_latency.getCount(),
+				_latency.getMean() / 1000,
+				_latency.getPercentile(50) / 1000,
+				_latency.getPercentile(99) / 1000,
+				_latency.getPercentile(99.9) / 1000,
+				_latency.getMax() / 1000));
+		}
+		return _stats;
+	}
+}
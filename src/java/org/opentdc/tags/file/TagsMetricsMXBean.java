@@ -0,0 +1,104 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.List;
+
+/**
+ * Management interface of the metrics of the file-based tags service.
+ * Registered as org.opentdc.tags:type=FileServiceProvider,name=&lt;prefix&gt;.
+ * @author Bruno Kaiser
+ *
+ */
+public interface TagsMetricsMXBean {
+	/**
+	 * @return the number of tags in the index
+	 */
+	int getTagCount();
+
+	/**
+	 * @return the number of localized texts in the index
+	 */
+	int getTextCount();
+
+	/**
+	 * @return the number of mutations that are not yet written to the data file (write-behind mode)
+	 */
+	int getPendingMutations();
+
+	/**
+	 * @return the number of list() calls served from the result cache
+	 */
+	long getListCacheHits();
+
+	/**
+	 * @return the number of list() calls that were computed from the indexes
+	 */
+	long getListCacheMisses();
+
+	/**
+	 * @return the share of list() calls served from the result cache, between 0 and 1
+	 */
+	double getListCacheHitRatio();
+
+	/**
+	 * @return the number of results in the list() cache
+	 */
+	int getListCacheSize();
+
+	/**
+	 * @return the number of writes of the data file
+	 */
+	long getExportCount();
+
+	/**
+	 * @return the mean duration of a write of the data file in microseconds
+	 */
+	long getExportMeanMicros();
+
+	/**
+	 * @return the longest duration of a write of the data file in microseconds
+	 */
+	long getExportMaxMicros();
+
+	/**
+	 * @return the number of bytes written by the last write of the data file or of the dirty shards
+	 */
+	long getLastExportBytes();
+
+	/**
+	 * @return the total number of bytes written to the data file or the shards
+	 */
+	long getExportBytesTotal();
+
+	/**
+	 * @return the duration of loading the store at startup in milliseconds
+	 */
+	long getImportMillis();
+
+	/**
+	 * @return the statistics of all operations of the service provider
+	 */
+	List<OperationStats> getOperations();
+}
@@ -0,0 +1,145 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Arbalo AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.opentdc.tags.file;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces mutations of the tags store into periodic exports.
+ * Mutations only mark the store dirty; a background thread runs the export
+ * at most once per interval, or earlier if the dirty count reaches a threshold.
+ * @author Bruno Kaiser
+ *
+ */
+class WriteBehindFlusher {
+	private static final Logger logger = Logger.getLogger(WriteBehindFlusher.class.getName());
+	private final Runnable exporter;
+	private final int dirtyThreshold;
+	private final AtomicInteger dirtyCount = new AtomicInteger();
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+	private final Object flushLock = new Object();
+	private final ScheduledExecutorService executor;
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flushRequested.set(false);
+			try {
+				flush();
+			} catch (RuntimeException _ex) {
+				logger.log(Level.SEVERE, "write-behind flush failed; will retry", _ex);
+			}
+		}
+	};
+
+	/**
+	 * Constructor.
+	 * @param exporter writes the complete store to disk
+	 * @param intervalMillis maximal delay between a mutation and its export
+	 * @param dirtyThreshold number of pending mutations that triggers an immediate export
+	 */
+	WriteBehindFlusher(
+		Runnable exporter,
+		long intervalMillis,
+		int dirtyThreshold
+	) {
+		this.exporter = exporter;
+		this.dirtyThreshold = dirtyThreshold;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread _t = new Thread(r, "tags-write-behind");
+				_t.setDaemon(true);
+				return _t;
+			}
+		});
+		executor.scheduleWithFixedDelay(flushTask, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		logger.info("write-behind persistence: interval=" + intervalMillis + 
+				"ms, dirtyThreshold=" + dirtyThreshold);
+	}
+
+	/**
+	 * Record a mutation. Schedules an immediate export once the threshold is reached.
+	 */
+	void markDirty() {
+		if (dirtyCount.incrementAndGet() >= dirtyThreshold 
+				&& flushRequested.compareAndSet(false, true)) {
+			executor.execute(flushTask);
+		}
+	}
+
+	/**
+	 * @return the number of mutations not yet written to disk
+	 */
+	int getDirtyCount() {
+		return dirtyCount.get();
+	}
+
+	/**
+	 * @return true if all mutations are written; waits for a running flush
+	 */
+	boolean isClean() {
+		synchronized (flushLock) {
+			return dirtyCount.get() == 0;
+		}
+	}
+
+	/**
+	 * Export the store if it is dirty. Runs on the calling thread.
+	 */
+	void flush() {
+		synchronized (flushLock) {
+			int _pending = dirtyCount.getAndSet(0);
+			if (_pending == 0) {
+				return;
+			}
+			try {
+				exporter.run();
+			} catch (RuntimeException _ex) {
+				dirtyCount.addAndGet(_pending);
+				throw _ex;
+			}
+			logger.fine("flush() -> " + _pending + " mutations written.");
+		}
+	}
+
+	/**
+	 * Stop the background thread and write all pending mutations.
+	 */
+	void shutdown() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException _ex) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+}